@@ -1,5 +1,7 @@
 package de.kriegel.studip.client.config;
 
+import java.util.regex.Pattern;
+
 public enum Endpoints {
 
     MESSAGES("/messages/write"), SEMESTERS("/semesters"), SEMESTER("/semester/:semester_id"), COURSE("/course/:course_id"), COURSE_MEMBERS("/course/:course_id/members"), COURSE_NEWS("/news/:news_id"), ALL_COURSE_NEWS(
@@ -8,15 +10,32 @@ public enum Endpoints {
             "/folder/:folder_id"), USER("/user"), USER_COURSES("/user/:user_id/courses");
 
     private final String path;
+    private final Pattern pattern;
 
     private Endpoints(String path) {
         this.path = path;
+        this.pattern = Pattern.compile(path.replaceAll(":[a-z_]+", "[^/]+"));
     }
 
     public String getPath() {
         return this.path;
     }
 
+    /**
+     * @param path
+     *            path relative to the API, e.g. /file/abc/download
+     * @return the endpoint whose template matches the whole path or null
+     */
+    public static Endpoints fromPath(String path) {
+        for (Endpoints endpoint : values()) {
+            if (endpoint.pattern.matcher(path).matches()) {
+                return endpoint;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public String toString() {
         return path;
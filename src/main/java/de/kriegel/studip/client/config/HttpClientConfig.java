@@ -0,0 +1,319 @@
+package de.kriegel.studip.client.config;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tuning parameters of the {@link de.kriegel.studip.client.service.BasicHttpClient}. Every value has a sensible
+ * default, so a plain {@code new HttpClientConfig()} can be used as is.
+ *
+ * @author Josef
+ */
+public class HttpClientConfig {
+
+	public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 2000;
+	public static final long DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+	public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 16;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+	public static final int DEFAULT_MAX_REQUESTS = 64;
+	public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 16;
+	public static final int DEFAULT_INITIAL_CONCURRENCY_LIMIT = 4;
+	public static final int DEFAULT_MIN_CONCURRENCY_LIMIT = 1;
+	public static final double DEFAULT_BULK_CONCURRENCY_SHARE = 0.5;
+	public static final long DEFAULT_BULK_PERMIT_TIMEOUT_MILLIS = 10 * 60 * 1000;
+	public static final int DEFAULT_MAX_RETRIES = 4;
+	public static final long DEFAULT_RETRY_BASE_DELAY_MILLIS = 500;
+	public static final long DEFAULT_RETRY_MAX_DELAY_MILLIS = 30000;
+	public static final long DEFAULT_REQUEST_DEADLINE_MILLIS = 60000;
+	public static final int DEFAULT_JSON_CACHE_SIZE = 1024;
+	public static final long DEFAULT_CACHE_MAX_SIZE_BYTES = 50 * 1024 * 1024;
+	public static final double DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 0.5;
+	public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+	public static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_REQUESTS = 10;
+	public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS = 30000;
+	public static final int DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES = 2;
+	public static final RateLimit DEFAULT_RATE_LIMIT = RateLimit.UNLIMITED;
+
+	private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	// maximum time a single read on the socket may block, 0 for no timeout
+	private long readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+	// connection pool
+	private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+	private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+	// dispatcher
+	private int maxRequests = DEFAULT_MAX_REQUESTS;
+	private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+	// adaptive limit of requests in flight, never exceeds maxRequestsPerHost
+	private int initialConcurrencyLimit = DEFAULT_INITIAL_CONCURRENCY_LIMIT;
+	private int minConcurrencyLimit = DEFAULT_MIN_CONCURRENCY_LIMIT;
+	// share of the limit downloads may use, the rest is kept free for interactive and metadata requests
+	private double bulkConcurrencyShare = DEFAULT_BULK_CONCURRENCY_SHARE;
+	// time a download may wait for a permit before it fails, so a leaked permit cannot block downloads for good
+	private long bulkPermitTimeoutMillis = DEFAULT_BULK_PERMIT_TIMEOUT_MILLIS;
+
+	// retries of failed GET requests
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long retryBaseDelayMillis = DEFAULT_RETRY_BASE_DELAY_MILLIS;
+	private long retryMaxDelayMillis = DEFAULT_RETRY_MAX_DELAY_MILLIS;
+	// time a GET request may take including all retries, 0 for no deadline
+	private long requestDeadlineMillis = DEFAULT_REQUEST_DEADLINE_MILLIS;
+
+	// parsed json responses kept for revalidation with ETag and Last-Modified, 0 disables the cache
+	private int jsonCacheSize = DEFAULT_JSON_CACHE_SIZE;
+
+	// persistent response cache of API metadata, disabled without a directory
+	private File cacheDirectory = null;
+	private long cacheMaxSizeBytes = DEFAULT_CACHE_MAX_SIZE_BYTES;
+	// answer GET requests from the response cache only
+	private boolean offline = false;
+
+	// persists the session cookies across restarts, kept in memory only without a file
+	private File cookieFile = null;
+
+	// circuit breaker per endpoint, opens at the failure rate among the last windowSize requests
+	private double circuitBreakerFailureRate = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE;
+	private int circuitBreakerWindowSize = DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+	private int circuitBreakerMinimumRequests = DEFAULT_CIRCUIT_BREAKER_MINIMUM_REQUESTS;
+	private long circuitBreakerOpenMillis = DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS;
+	private int circuitBreakerHalfOpenProbes = DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES;
+
+	// token buckets for the request rate and bandwidth of every host, unless the host has a limit of its own
+	private RateLimit rateLimit = DEFAULT_RATE_LIMIT;
+	private final Map<String, RateLimit> hostRateLimits = new ConcurrentHashMap<>();
+
+	public long getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public long getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(long readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	public int getMaxIdleConnections() {
+		return maxIdleConnections;
+	}
+
+	public void setMaxIdleConnections(int maxIdleConnections) {
+		this.maxIdleConnections = maxIdleConnections;
+	}
+
+	public long getKeepAliveMillis() {
+		return keepAliveMillis;
+	}
+
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	public void setMaxRequests(int maxRequests) {
+		this.maxRequests = maxRequests;
+	}
+
+	public int getMaxRequestsPerHost() {
+		return maxRequestsPerHost;
+	}
+
+	public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+		this.maxRequestsPerHost = maxRequestsPerHost;
+	}
+
+	public int getInitialConcurrencyLimit() {
+		return initialConcurrencyLimit;
+	}
+
+	public void setInitialConcurrencyLimit(int initialConcurrencyLimit) {
+		this.initialConcurrencyLimit = initialConcurrencyLimit;
+	}
+
+	public int getMinConcurrencyLimit() {
+		return minConcurrencyLimit;
+	}
+
+	public void setMinConcurrencyLimit(int minConcurrencyLimit) {
+		this.minConcurrencyLimit = minConcurrencyLimit;
+	}
+
+	public double getBulkConcurrencyShare() {
+		return bulkConcurrencyShare;
+	}
+
+	public void setBulkConcurrencyShare(double bulkConcurrencyShare) {
+		this.bulkConcurrencyShare = bulkConcurrencyShare;
+	}
+
+	public long getBulkPermitTimeoutMillis() {
+		return bulkPermitTimeoutMillis;
+	}
+
+	/**
+	 * @param bulkPermitTimeoutMillis
+	 *            0 lets downloads wait for a permit forever
+	 */
+	public void setBulkPermitTimeoutMillis(long bulkPermitTimeoutMillis) {
+		this.bulkPermitTimeoutMillis = bulkPermitTimeoutMillis;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public long getRetryBaseDelayMillis() {
+		return retryBaseDelayMillis;
+	}
+
+	public void setRetryBaseDelayMillis(long retryBaseDelayMillis) {
+		this.retryBaseDelayMillis = retryBaseDelayMillis;
+	}
+
+	public long getRetryMaxDelayMillis() {
+		return retryMaxDelayMillis;
+	}
+
+	public void setRetryMaxDelayMillis(long retryMaxDelayMillis) {
+		this.retryMaxDelayMillis = retryMaxDelayMillis;
+	}
+
+	public long getRequestDeadlineMillis() {
+		return requestDeadlineMillis;
+	}
+
+	public void setRequestDeadlineMillis(long requestDeadlineMillis) {
+		this.requestDeadlineMillis = requestDeadlineMillis;
+	}
+
+	public int getJsonCacheSize() {
+		return jsonCacheSize;
+	}
+
+	public void setJsonCacheSize(int jsonCacheSize) {
+		this.jsonCacheSize = jsonCacheSize;
+	}
+
+	public File getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public void setCacheDirectory(File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public long getCacheMaxSizeBytes() {
+		return cacheMaxSizeBytes;
+	}
+
+	public void setCacheMaxSizeBytes(long cacheMaxSizeBytes) {
+		this.cacheMaxSizeBytes = cacheMaxSizeBytes;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	public File getCookieFile() {
+		return cookieFile;
+	}
+
+	public void setCookieFile(File cookieFile) {
+		this.cookieFile = cookieFile;
+	}
+
+	public double getCircuitBreakerFailureRate() {
+		return circuitBreakerFailureRate;
+	}
+
+	/**
+	 * @param circuitBreakerFailureRate
+	 *            between 0 and 1, a value above 1 disables the circuit breakers
+	 */
+	public void setCircuitBreakerFailureRate(double circuitBreakerFailureRate) {
+		this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+	}
+
+	public int getCircuitBreakerWindowSize() {
+		return circuitBreakerWindowSize;
+	}
+
+	public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+		this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+	}
+
+	public int getCircuitBreakerMinimumRequests() {
+		return circuitBreakerMinimumRequests;
+	}
+
+	public void setCircuitBreakerMinimumRequests(int circuitBreakerMinimumRequests) {
+		this.circuitBreakerMinimumRequests = circuitBreakerMinimumRequests;
+	}
+
+	public long getCircuitBreakerOpenMillis() {
+		return circuitBreakerOpenMillis;
+	}
+
+	public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+		this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+	}
+
+	public int getCircuitBreakerHalfOpenProbes() {
+		return circuitBreakerHalfOpenProbes;
+	}
+
+	public void setCircuitBreakerHalfOpenProbes(int circuitBreakerHalfOpenProbes) {
+		this.circuitBreakerHalfOpenProbes = circuitBreakerHalfOpenProbes;
+	}
+
+	public RateLimit getRateLimit() {
+		return rateLimit;
+	}
+
+	/**
+	 * @param rateLimit
+	 *            limits of all hosts without a limit of their own, {@link RateLimit#UNLIMITED} by default
+	 */
+	public void setRateLimit(RateLimit rateLimit) {
+		this.rateLimit = rateLimit;
+	}
+
+	/**
+	 * @param host
+	 * @return the limits of the host or the default limits
+	 */
+	public RateLimit getRateLimit(String host) {
+		return hostRateLimits.getOrDefault(host, rateLimit);
+	}
+
+	/**
+	 * Overrides the default limits for a single host, e.g. one of the servers in studipServerAddresses.conf whose
+	 * administrators grant a different request budget.
+	 *
+	 * @param host
+	 * @param rateLimit
+	 */
+	public void setRateLimit(String host, RateLimit rateLimit) {
+		hostRateLimits.put(host, rateLimit);
+	}
+
+}
@@ -0,0 +1,56 @@
+package de.kriegel.studip.client.config;
+
+/**
+ * Token bucket limits of a single host. A rate of 0 or less disables the respective limit.
+ *
+ * @author Josef
+ */
+public class RateLimit {
+
+	public static final RateLimit UNLIMITED = new RateLimit(0, 0, 0, 0);
+
+	private final double requestsPerSecond;
+	private final int requestBurst;
+	private final long bytesPerSecond;
+	private final long bandwidthBurstBytes;
+
+	/**
+	 * @param requestsPerSecond
+	 *            sustained rate of requests
+	 * @param requestBurst
+	 *            amount of requests which may be sent at once after an idle period
+	 * @param bytesPerSecond
+	 *            sustained bandwidth of response bodies
+	 * @param bandwidthBurstBytes
+	 *            amount of bytes which may be read at once after an idle period
+	 */
+	public RateLimit(double requestsPerSecond, int requestBurst, long bytesPerSecond, long bandwidthBurstBytes) {
+		this.requestsPerSecond = requestsPerSecond;
+		this.requestBurst = Math.max(1, requestBurst);
+		this.bytesPerSecond = bytesPerSecond;
+		this.bandwidthBurstBytes = Math.max(1, bandwidthBurstBytes);
+	}
+
+	public double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	public int getRequestBurst() {
+		return requestBurst;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public long getBandwidthBurstBytes() {
+		return bandwidthBurstBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimit: requestsPerSecond: " + requestsPerSecond + ", requestBurst: " + requestBurst
+				+ ", bytesPerSecond: " + bytesPerSecond + ", bandwidthBurstBytes: " + bandwidthBurstBytes;
+	}
+
+}
@@ -42,13 +42,30 @@ public class CourseNews implements Serializable {
 		this.ranges = ranges;
 	}
 
-	@SuppressWarnings("unchecked")
 	public static CourseNews fromJson(JSONObject jsonObject) {
 		assert jsonObject != null;
-		assert jsonObject.containsKey("news_id");
 
 		Id courseId = null;
 
+		if (jsonObject.containsKey("course_id")) {
+			courseId = new Id(jsonObject.get("course_id").toString());
+		}
+
+		return fromJson(jsonObject, courseId);
+	}
+
+	/**
+	 * @param jsonObject
+	 *            not modified, so it may be shared with other callers
+	 * @param courseId
+	 *            course the news has been requested for
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static CourseNews fromJson(JSONObject jsonObject, Id courseId) {
+		assert jsonObject != null;
+		assert jsonObject.containsKey("news_id");
+
 		Id id = null;
 		String topic = "";
 		String body = "";
@@ -62,10 +79,6 @@ public class CourseNews implements Serializable {
 		String body_html = "";
 		List<String> ranges = new ArrayList<>();
 
-		if (jsonObject.containsKey("course_id")) {
-			courseId = new Id(jsonObject.get("course_id").toString());
-		}
-
 		if (jsonObject.containsKey("news_id")) {
 			id = new Id(jsonObject.get("news_id").toString());
 		}
@@ -6,6 +6,11 @@ import java.io.Serializable;
 
 public class FileRef implements Serializable {
 
+	/**
+	 * Keys which have to be present in a json object to build a FileRef usable for downloads
+	 */
+	private static final String[] REQUIRED_KEYS = { "id", "file_id", "name", "size", "chdate" };
+
 	private final Id id;
 	private final Id file_id;
 	private final Id folder_id;
@@ -20,13 +25,13 @@ public class FileRef implements Serializable {
 	private final boolean is_downloadable;
 	private final boolean is_editable;
 	private final boolean is_writable;
-	private final int size;
+	private final long size;
 	private final String mime_type;
 	private final String storage;
 
 	public FileRef(Id id, Id file_id, Id folder_id, int downloads, String description, String content_terms_of_use_id,
 			Id user_id, String name, long mkdate, long chdate, boolean is_readable, boolean is_downloadable,
-			boolean is_editable, boolean is_writable, int size, String mime_type, String storage) {
+			boolean is_editable, boolean is_writable, long size, String mime_type, String storage) {
 		this.id = id;
 		this.file_id = file_id;
 		this.folder_id = folder_id;
@@ -64,7 +69,7 @@ public class FileRef implements Serializable {
 		boolean is_downloadable = false;
 		boolean is_editable = false;
 		boolean is_writable = false;
-		int size = 0;
+		long size = 0;
 		String mime_type = "";
 		String storage = "";
 
@@ -125,7 +130,7 @@ public class FileRef implements Serializable {
 		}
 
 		if (jsonObject.containsKey("size")) {
-			size = Integer.parseInt(jsonObject.get("size").toString());
+			size = Long.parseLong(jsonObject.get("size").toString());
 		}
 
 		if (jsonObject.containsKey("mime_type")) {
@@ -140,6 +145,25 @@ public class FileRef implements Serializable {
 				mkdate, chdate, is_readable, is_downloadable, is_editable, is_writable, size, mime_type, storage);
 	}
 	
+	/**
+	 * Checks whether the given json object (e.g. an element of the file_refs array of a folder) contains all
+	 * fields needed to build a complete FileRef with {@link #fromJson(JSONObject)}.
+	 * 
+	 * @param jsonObject
+	 * @return
+	 */
+	public static boolean hasRequiredFields(JSONObject jsonObject) {
+		assert jsonObject != null;
+
+		for (String key : REQUIRED_KEYS) {
+			if (!jsonObject.containsKey(key) || jsonObject.get(key) == null) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	public Id getId() {
 		return id;
 	}
@@ -196,7 +220,7 @@ public class FileRef implements Serializable {
 		return is_writable;
 	}
 
-	public int getSize() {
+	public long getSize() {
 		return size;
 	}
 
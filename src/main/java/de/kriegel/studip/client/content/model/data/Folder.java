@@ -2,7 +2,11 @@ package de.kriegel.studip.client.content.model.data;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -26,11 +30,23 @@ public class Folder implements Serializable {
 	private final long mkdate;
 	private final long chdate;
 	private final List<Id> subfolders;
+	// chdates of the subfolders as embedded in the folder response, keyed by their id
+	private final Map<Id, Long> subfolder_chdates;
 	private final List<Id> file_refs;
+	// complete file refs embedded in the folder response, keyed by their id
+	private final Map<Id, FileRef> embedded_file_refs;
 
 	public Folder(boolean is_visible, boolean is_readable, boolean is_writable, Id id, String user_id, String parent_id,
 			Id range_id, String range_type, String folder_type, String name, List<Id> data_content, String description,
 			long mkdate, long chdate, List<Id> subfolders, List<Id> file_refs) {
+		this(is_visible, is_readable, is_writable, id, user_id, parent_id, range_id, range_type, folder_type, name,
+				data_content, description, mkdate, chdate, subfolders, new HashMap<>(), file_refs, new LinkedHashMap<>());
+	}
+
+	public Folder(boolean is_visible, boolean is_readable, boolean is_writable, Id id, String user_id, String parent_id,
+			Id range_id, String range_type, String folder_type, String name, List<Id> data_content, String description,
+			long mkdate, long chdate, List<Id> subfolders, Map<Id, Long> subfolder_chdates, List<Id> file_refs,
+			Map<Id, FileRef> embedded_file_refs) {
 		this.is_visible = is_visible;
 		this.is_readable = is_readable;
 		this.is_writable = is_writable;
@@ -46,7 +62,9 @@ public class Folder implements Serializable {
 		this.mkdate = mkdate;
 		this.chdate = chdate;
 		this.subfolders = subfolders;
+		this.subfolder_chdates = subfolder_chdates;
 		this.file_refs = file_refs;
+		this.embedded_file_refs = embedded_file_refs;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -69,7 +87,9 @@ public class Folder implements Serializable {
 		long mkdate = 0;
 		long chdate = 0;
 		List<Id> subfolders = new ArrayList<>();
+		Map<Id, Long> subfolder_chdates = new HashMap<>();
 		List<Id> file_refs = new ArrayList<>();
+		Map<Id, FileRef> embedded_file_refs = new LinkedHashMap<>();
 
 		if (jsonObject.containsKey("is_visible")) {
 			is_visible = Boolean.parseBoolean(jsonObject.get("is_visible").toString());
@@ -131,23 +151,35 @@ public class Folder implements Serializable {
 		if (jsonObject.containsKey("subfolders")) {
 			JSONArray subFoldersJson = (JSONArray) jsonObject.get("subfolders");
 			for(int i = 0; i < subFoldersJson.size(); i++) {
-				Id subfolderId = new Id(((JSONObject) subFoldersJson.get(i)).get("id").toString());
+				JSONObject subfolderJson = (JSONObject) subFoldersJson.get(i);
+				Id subfolderId = new Id(subfolderJson.get("id").toString());
 
 				subfolders.add(subfolderId);
+
+				if (subfolderJson.containsKey("chdate") && subfolderJson.get("chdate") != null) {
+					subfolder_chdates.put(subfolderId, Long.parseLong(subfolderJson.get("chdate").toString()));
+				}
 			}
 		}
 
 		if (jsonObject.containsKey("file_refs")) {
 			JSONArray file_refsJson = (JSONArray) jsonObject.get("file_refs");
 			for(int i = 0; i < file_refsJson.size(); i++) {
-				Id fileRefId = new Id(((JSONObject) file_refsJson.get(i)).get("id").toString());
+				JSONObject fileRefJson = (JSONObject) file_refsJson.get(i);
+				Id fileRefId = new Id(fileRefJson.get("id").toString());
 
 				file_refs.add(fileRefId);
+
+				// the folder response already contains the file objects, keep them to avoid one request per file
+				if (FileRef.hasRequiredFields(fileRefJson)) {
+					embedded_file_refs.put(fileRefId, FileRef.fromJson(fileRefJson));
+				}
 			}
 		}
 
 		return new Folder(is_visible, is_readable, is_writable, id, user_id, parent_id, range_id, range_type,
-				folder_type, name, data_content, description, mkdate, chdate, subfolders, file_refs);
+				folder_type, name, data_content, description, mkdate, chdate, subfolders, subfolder_chdates,
+				file_refs, embedded_file_refs);
 	}
 
 	public boolean isVisible() {
@@ -214,10 +246,32 @@ public class Folder implements Serializable {
 		return subfolders;
 	}
 
+	/**
+	 * @param subfolderId
+	 * @return the chdate of the given subfolder as embedded in this folder's response or null, if the response did
+	 *         not contain it
+	 */
+	public Long getSubfolderChdate(Id subfolderId) {
+		return subfolder_chdates.get(subfolderId);
+	}
+
 	public List<Id> getFileRefs() {
 		return file_refs;
 	}
 
+	/**
+	 * @param fileRefId
+	 * @return the complete file ref embedded in the folder response or null, if the response did not contain all
+	 *         required fields for it
+	 */
+	public FileRef getEmbeddedFileRef(Id fileRefId) {
+		return embedded_file_refs.get(fileRefId);
+	}
+
+	public Map<Id, FileRef> getEmbeddedFileRefs() {
+		return Collections.unmodifiableMap(embedded_file_refs);
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj) {
@@ -1,6 +1,9 @@
 package de.kriegel.studip.client.content.model.file;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,6 +18,11 @@ public class FileRefNode implements Serializable {
 
 	private List<FileRefNode> children;
 
+	/**
+	 * Merkle digest over this node and all of its descendants, computed lazily
+	 */
+	private transient volatile byte[] digest;
+
 	public FileRefNode(FileRef fileRef) {
 		this.fileRef = fileRef;
 	}
@@ -41,9 +49,17 @@ public class FileRefNode implements Serializable {
 		return isDirectory;
 	}
 
+	/**
+	 * @return the name of this node as used on disk
+	 */
+	public String getName() {
+		return isDirectory ? folder.getNameValidAsFilename() : fileRef.getName();
+	}
+
 	public void addFileRefNode(FileRefNode fileNode) throws Exception {
 		if (isDirectory) {
 			this.children.add(fileNode);
+			this.digest = null;
 		} else {
 			throw new Exception("This FileNode is no Directory!");
 		}
@@ -61,4 +77,55 @@ public class FileRefNode implements Serializable {
 		return sum;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Returns a digest over the id, name, size and chdate of this node's file ref or, for directories, over the
+	 * folder's id and name and the digests of all children. Two nodes with equal digests therefore have identical
+	 * subtrees. The digest is cached, so a node is expected to be complete once its digest is requested.
+	 *
+	 * @return
+	 */
+	public byte[] getDigest() {
+		byte[] result = digest;
+
+		if (result == null) {
+			result = computeDigest();
+			digest = result;
+		}
+
+		return result;
+	}
+
+	private byte[] computeDigest() {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		if (isDirectory) {
+			update(messageDigest, "d");
+			update(messageDigest, String.valueOf(folder.getId()));
+			update(messageDigest, folder.getName());
+
+			for (FileRefNode child : children) {
+				messageDigest.update(child.getDigest());
+			}
+		} else {
+			update(messageDigest, "f");
+			update(messageDigest, String.valueOf(fileRef.getId()));
+			update(messageDigest, fileRef.getName());
+			update(messageDigest, String.valueOf(fileRef.getSize()));
+			update(messageDigest, String.valueOf(fileRef.getChdate()));
+		}
+
+		return messageDigest.digest();
+	}
+
+	private static void update(MessageDigest messageDigest, String value) {
+		messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+		// separator, so that e.g. ("ab", "c") and ("a", "bc") differ
+		messageDigest.update((byte) 0);
+	}
+
+}
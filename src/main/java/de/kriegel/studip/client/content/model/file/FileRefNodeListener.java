@@ -0,0 +1,20 @@
+package de.kriegel.studip.client.content.model.file;
+
+/**
+ * Receives the nodes of a {@link FileRefTree} while it is being crawled, so they can be processed before the whole
+ * tree is known. Folders are passed before their contents. Implementations have to be thread safe, as nodes are
+ * passed from whichever thread resolved them.
+ *
+ * @author Josef
+ */
+public interface FileRefNodeListener {
+
+	/**
+	 * @param node
+	 *            a file or folder node, its folder children are not complete yet
+	 * @param path
+	 *            path of the node relative to the root folder of the course
+	 */
+	public void onFileRefNode(FileRefNode node, String path);
+
+}
@@ -38,6 +38,27 @@ public class FileRefTree implements Serializable {
 		return new FileRefNode(folder);
 	}
 
+	/**
+	 * @param parentPath
+	 *            path of the parent relative to the root folder, empty for the root itself
+	 * @param child
+	 * @return path of the child relative to the root folder
+	 */
+	public static String getChildPath(String parentPath, FileRefNode child) {
+		return parentPath.isEmpty() ? child.getName() : parentPath + "/" + child.getName();
+	}
+
+	/**
+	 * Compares this tree with a previous snapshot of the same course. Subtrees with equal digests are skipped.
+	 *
+	 * @param previous
+	 *            the previous snapshot, may be null
+	 * @return added, changed, removed and moved entries of this tree compared to the previous one
+	 */
+	public FileRefTreeDiff diff(FileRefTree previous) {
+		return FileRefTreeDiff.compute(previous, this);
+	}
+
 	private String traverseTreeInorder(FileRefNode root) {
 		StringWriter resultWriter = new StringWriter();
 
@@ -0,0 +1,241 @@
+package de.kriegel.studip.client.content.model.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.kriegel.studip.client.content.model.data.Id;
+
+/**
+ * Differences between two snapshots of the {@link FileRefTree} of a course. Nodes are matched by the id of their
+ * file ref or folder, so a file which got renamed or moved into another folder shows up as moved instead of being
+ * removed and added. Paths are relative to the root folder and built the same way the DownloadManager lays out
+ * files on disk.
+ * <p>
+ * Folders are first compared in place, skipping subtrees with equal digests. Only the subtrees which are not at
+ * their previous place are then matched by id, every node of such a subtree whose path changed is reported as
+ * moved. A file which became a folder with the same id or vice versa is reported as removed and added.
+ *
+ * @author Josef
+ */
+public class FileRefTreeDiff {
+
+	private final List<Entry> added = new ArrayList<>();
+	private final List<Entry> changed = new ArrayList<>();
+	private final List<Entry> removed = new ArrayList<>();
+	private final List<Entry> moved = new ArrayList<>();
+
+	// roots of the subtrees not found at their previous place, matched by id at the end
+	private final List<Entry> addedSubtrees = new ArrayList<>();
+	private final List<Entry> removedSubtrees = new ArrayList<>();
+
+	private FileRefTreeDiff() {
+	}
+
+	static FileRefTreeDiff compute(FileRefTree previous, FileRefTree current) {
+		FileRefTreeDiff diff = new FileRefTreeDiff();
+
+		FileRefNode currentRoot = current.getRoot();
+
+		if (previous == null || !previous.getRoot().isDirectory() || !currentRoot.isDirectory()) {
+			if (currentRoot.isDirectory()) {
+				for (FileRefNode child : currentRoot.getChildren()) {
+					diff.addedSubtrees.add(new Entry(null, child, null, FileRefTree.getChildPath("", child)));
+				}
+			}
+		} else {
+			diff.diffFolder(previous.getRoot(), currentRoot, "");
+		}
+
+		diff.matchSubtrees();
+
+		return diff;
+	}
+
+	/**
+	 * Compares the children of a folder which kept its path.
+	 */
+	private void diffFolder(FileRefNode previous, FileRefNode current, String path) {
+		if (Arrays.equals(previous.getDigest(), current.getDigest())) {
+			// identical subtree
+			return;
+		}
+
+		Map<Id, FileRefNode> previousChildren = new LinkedHashMap<>();
+		for (FileRefNode child : previous.getChildren()) {
+			previousChildren.put(idOf(child), child);
+		}
+
+		for (FileRefNode child : current.getChildren()) {
+			String childPath = FileRefTree.getChildPath(path, child);
+			FileRefNode previousChild = previousChildren.get(idOf(child));
+
+			if (previousChild == null || previousChild.isDirectory() != child.isDirectory()
+					|| !previousChild.getName().equals(child.getName())) {
+				addedSubtrees.add(new Entry(null, child, null, childPath));
+			} else {
+				previousChildren.remove(idOf(child));
+
+				if (child.isDirectory()) {
+					diffFolder(previousChild, child, childPath);
+				} else if (isChanged(previousChild, child)) {
+					changed.add(new Entry(previousChild, child, childPath, childPath));
+				}
+			}
+		}
+
+		for (FileRefNode previousChild : previousChildren.values()) {
+			removedSubtrees.add(new Entry(previousChild, null, FileRefTree.getChildPath(path, previousChild), null));
+		}
+	}
+
+	/**
+	 * Matches all nodes of the subtrees which are not at their previous place by id, regardless of their depth.
+	 */
+	private void matchSubtrees() {
+		Map<Id, Entry> previousNodes = new LinkedHashMap<>();
+		for (Entry subtree : removedSubtrees) {
+			collect(subtree.previousNode, subtree.previousPath, true, previousNodes);
+		}
+
+		Map<Id, Entry> currentNodes = new LinkedHashMap<>();
+		for (Entry subtree : addedSubtrees) {
+			collect(subtree.currentNode, subtree.currentPath, false, currentNodes);
+		}
+
+		for (Entry current : currentNodes.values()) {
+			Entry previous = previousNodes.get(idOf(current.currentNode));
+
+			if (previous == null || previous.previousNode.isDirectory() != current.currentNode.isDirectory()) {
+				added.add(current);
+				continue;
+			}
+
+			previousNodes.remove(idOf(current.currentNode));
+
+			if (!previous.previousPath.equals(current.currentPath)) {
+				moved.add(new Entry(previous.previousNode, current.currentNode, previous.previousPath,
+						current.currentPath));
+			}
+			if (!current.isDirectory() && isChanged(previous.previousNode, current.currentNode)) {
+				changed.add(new Entry(previous.previousNode, current.currentNode, previous.previousPath,
+						current.currentPath));
+			}
+		}
+
+		removed.addAll(previousNodes.values());
+	}
+
+	/**
+	 * Adds the node and all its descendants in pre-order.
+	 *
+	 * @param previous
+	 *            true, if the node belongs to the previous tree
+	 */
+	private static void collect(FileRefNode node, String path, boolean previous, Map<Id, Entry> nodes) {
+		nodes.put(idOf(node), previous ? new Entry(node, null, path, null) : new Entry(null, node, null, path));
+
+		if (node.isDirectory()) {
+			for (FileRefNode child : node.getChildren()) {
+				collect(child, FileRefTree.getChildPath(path, child), previous, nodes);
+			}
+		}
+	}
+
+	private static boolean isChanged(FileRefNode previous, FileRefNode current) {
+		return previous.getFileRef().getSize() != current.getFileRef().getSize()
+				|| previous.getFileRef().getChdate() != current.getFileRef().getChdate();
+	}
+
+	private static Id idOf(FileRefNode node) {
+		return node.isDirectory() ? node.getFolder().getId() : node.getFileRef().getId();
+	}
+
+	/**
+	 * @return nodes only present in the current tree, including all descendants of added folders
+	 */
+	public List<Entry> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return files present in both trees whose size or chdate changed
+	 */
+	public List<Entry> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return nodes only present in the previous tree, including all descendants of removed folders
+	 */
+	public List<Entry> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return files and folders present in both trees under a different path
+	 */
+	public List<Entry> getMoved() {
+		return moved;
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && changed.isEmpty() && removed.isEmpty() && moved.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "FileRefTreeDiff: added: " + added.size() + ", changed: " + changed.size() + ", removed: "
+				+ removed.size() + ", moved: " + moved.size();
+	}
+
+	public static class Entry {
+
+		private final FileRefNode previousNode;
+		private final FileRefNode currentNode;
+		private final String previousPath;
+		private final String currentPath;
+
+		private Entry(FileRefNode previousNode, FileRefNode currentNode, String previousPath, String currentPath) {
+			this.previousNode = previousNode;
+			this.currentNode = currentNode;
+			this.previousPath = previousPath;
+			this.currentPath = currentPath;
+		}
+
+		/**
+		 * @return the node in the previous tree or null, if the entry was added
+		 */
+		public FileRefNode getPreviousNode() {
+			return previousNode;
+		}
+
+		/**
+		 * @return the node in the current tree or null, if the entry was removed
+		 */
+		public FileRefNode getCurrentNode() {
+			return currentNode;
+		}
+
+		public String getPreviousPath() {
+			return previousPath;
+		}
+
+		public String getCurrentPath() {
+			return currentPath;
+		}
+
+		public boolean isDirectory() {
+			return (currentNode != null ? currentNode : previousNode).isDirectory();
+		}
+
+		@Override
+		public String toString() {
+			return (previousPath == null ? "" : previousPath) + " -> " + (currentPath == null ? "" : currentPath);
+		}
+
+	}
+
+}
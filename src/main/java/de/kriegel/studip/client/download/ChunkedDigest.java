@@ -0,0 +1,105 @@
+package de.kriegel.studip.client.download;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checksum of a file which is computed while the file is downloaded. The file is split into chunks of
+ * {@link #CHUNK_SIZE} bytes, the checksum is the SHA-256 of the concatenated SHA-256 digests of all chunks. Unlike a
+ * plain SHA-256 this allows to hash the segments of a segmented download independently, as long as they start at a
+ * chunk boundary, and still get the same checksum as for a sequential download.
+ *
+ * @author Josef
+ */
+class ChunkedDigest {
+
+    static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private final MessageDigest chunkDigest = newMessageDigest();
+
+    private final List<byte[]> chunkDigests = new ArrayList<>();
+
+    // bytes of the current chunk hashed so far
+    private int chunkPosition = 0;
+
+    private long byteCount = 0;
+
+    /**
+     * Hashes the remaining bytes of the buffer. Position and limit of the buffer are left unchanged.
+     *
+     * @param buffer
+     */
+    void update(ByteBuffer buffer) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+
+        while (buffer.position() < limit) {
+            int length = Math.min(limit - buffer.position(), CHUNK_SIZE - chunkPosition);
+
+            buffer.limit(buffer.position() + length);
+            chunkDigest.update(buffer);
+            buffer.limit(limit);
+
+            chunkPosition += length;
+            byteCount += length;
+
+            if (chunkPosition == CHUNK_SIZE) {
+                chunkDigests.add(chunkDigest.digest());
+                chunkPosition = 0;
+            }
+        }
+
+        buffer.position(position);
+    }
+
+    /**
+     * @return amount of hashed bytes
+     */
+    long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Completes the last chunk. Must not be updated afterwards.
+     *
+     * @return digests of all chunks
+     */
+    List<byte[]> finish() {
+        if (chunkPosition > 0) {
+            chunkDigests.add(chunkDigest.digest());
+            chunkPosition = 0;
+        }
+
+        return chunkDigests;
+    }
+
+    /**
+     * @param chunkDigests
+     *            digests of all chunks of the file in order
+     * @return the checksum of the file
+     */
+    static byte[] combine(List<byte[]> chunkDigests) {
+        MessageDigest digest = newMessageDigest();
+
+        for (byte[] chunk : chunkDigests) {
+            digest.update(chunk);
+        }
+
+        return digest.digest();
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package de.kriegel.studip.client.download;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct {@link ByteBuffer}s for the download workers. Buffer sizes are powers of two between
+ * {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}, so small files do not occupy large buffers and large files
+ * are written in few big chunks. Direct buffers are expensive to allocate and are only freed by the garbage
+ * collector, hence they are reused instead of allocated per download.
+ *
+ * @author Josef
+ */
+class DirectBufferPool {
+
+    static final int MIN_BUFFER_SIZE = 8 * 1024;
+    static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    // amount of idle buffers kept per size
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    private final ConcurrentHashMap<Integer, Queue<ByteBuffer>> pools = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, AtomicInteger> pooledCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param expectedSize
+     *            amount of bytes which are going to be transferred, e.g. the size of the file
+     * @return a cleared buffer of at least {@link #MIN_BUFFER_SIZE} bytes
+     */
+    ByteBuffer acquire(long expectedSize) {
+        int bufferSize = bufferSizeFor(expectedSize);
+
+        ByteBuffer buffer = pool(bufferSize).poll();
+
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        pooledCounts.get(bufferSize).decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        int bufferSize = buffer.capacity();
+
+        Queue<ByteBuffer> pool = pool(bufferSize);
+
+        if (pooledCounts.get(bufferSize).incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            pool.add(buffer);
+        } else {
+            pooledCounts.get(bufferSize).decrementAndGet();
+        }
+    }
+
+    private Queue<ByteBuffer> pool(int bufferSize) {
+        pooledCounts.computeIfAbsent(bufferSize, size -> new AtomicInteger());
+        return pools.computeIfAbsent(bufferSize, size -> new ConcurrentLinkedQueue<>());
+    }
+
+    static int bufferSizeFor(long expectedSize) {
+        if (expectedSize <= MIN_BUFFER_SIZE) {
+            return MIN_BUFFER_SIZE;
+        }
+
+        if (expectedSize >= MAX_BUFFER_SIZE) {
+            return MAX_BUFFER_SIZE;
+        }
+
+        return Integer.highestOneBit((int) expectedSize - 1) << 1;
+    }
+
+}
@@ -0,0 +1,145 @@
+package de.kriegel.studip.client.download;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.kriegel.studip.client.content.model.data.Course;
+import de.kriegel.studip.client.content.model.data.FileRef;
+
+/**
+ * Download of a single file, queued in the {@link DownloadScheduler}. The future completes with the output file as
+ * soon as the download finished.
+ *
+ * @author Josef
+ */
+public class DownloadJob {
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    private final Course course;
+    private final FileRef fileRef;
+    private final File outputFile;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+    private volatile boolean cancelRequested = false;
+
+    private final CompletableFuture<File> future = new CompletableFuture<>();
+
+    private volatile byte[] checksum;
+
+    private volatile int reschedules = 0;
+
+    DownloadJob(Course course, FileRef fileRef, File outputFile) {
+        this.course = course;
+        this.fileRef = fileRef;
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Cancels the job. A queued job is dropped right away, a running download is aborted by the worker at the next
+     * chunk.
+     *
+     * @return false, if the job already finished
+     */
+    public boolean cancel() {
+        cancelRequested = true;
+
+        if (state.compareAndSet(State.QUEUED, State.CANCELLED)) {
+            future.cancel(false);
+            return true;
+        }
+
+        return state.get() == State.RUNNING;
+    }
+
+    boolean start() {
+        return state.compareAndSet(State.QUEUED, State.RUNNING);
+    }
+
+    /**
+     * Puts a running job back into the queued state, so it can be submitted again.
+     *
+     * @return false, if the job has been cancelled
+     */
+    boolean requeue() {
+        if (cancelRequested || !state.compareAndSet(State.RUNNING, State.QUEUED)) {
+            return false;
+        }
+
+        reschedules++;
+
+        if (cancelRequested) {
+            // cancelled in between, the scheduler drops the job when it is started
+            cancel();
+        }
+
+        return true;
+    }
+
+    void complete() {
+        if (cancelRequested) {
+            state.set(State.CANCELLED);
+            future.cancel(false);
+        } else {
+            state.set(State.COMPLETED);
+            future.complete(outputFile);
+        }
+    }
+
+    void fail(Throwable throwable) {
+        state.set(State.FAILED);
+        future.completeExceptionally(throwable);
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * @return how often the job has been put back into the queue, e.g. because its transfer stalled
+     */
+    public int getReschedules() {
+        return reschedules;
+    }
+
+    public Course getCourse() {
+        return course;
+    }
+
+    public FileRef getFileRef() {
+        return fileRef;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * @return checksum of the downloaded file as computed by {@link ChunkedDigest} or null, if the file has not
+     *         been downloaded (yet)
+     */
+    public byte[] getChecksum() {
+        return checksum;
+    }
+
+    void setChecksum(byte[] checksum) {
+        this.checksum = checksum;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public CompletableFuture<File> getFuture() {
+        return future;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadJob: " + fileRef.getName() + " -> " + outputFile.getAbsolutePath() + " (" + state.get() + ")";
+    }
+
+}
@@ -1,22 +1,37 @@
 package de.kriegel.studip.client.download;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Observable;
 import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
@@ -26,21 +41,40 @@ import de.kriegel.studip.client.config.Endpoints;
 import de.kriegel.studip.client.config.SubPaths;
 import de.kriegel.studip.client.content.model.data.Course;
 import de.kriegel.studip.client.content.model.data.FileRef;
+import de.kriegel.studip.client.content.model.data.Id;
 import de.kriegel.studip.client.content.model.data.Semester;
 import de.kriegel.studip.client.content.model.file.FileRefNode;
+import de.kriegel.studip.client.content.model.file.FileRefNodeListener;
 import de.kriegel.studip.client.content.model.file.FileRefTree;
+import de.kriegel.studip.client.content.model.file.FileRefTreeDiff;
 import de.kriegel.studip.client.event.CourseDownloadFinishedEvent;
 import de.kriegel.studip.client.event.CourseDownloadFinishedEventListener;
 import de.kriegel.studip.client.event.CourseDownloadProgressEvent;
+import de.kriegel.studip.client.exception.DownloadStalledException;
+import de.kriegel.studip.client.exception.DownloadVerificationException;
+import de.kriegel.studip.client.exception.HttpStatusException;
 import de.kriegel.studip.client.exception.NotAuthenticatedException;
 import de.kriegel.studip.client.service.BasicHttpClient;
 import de.kriegel.studip.client.service.CourseService;
+import de.kriegel.studip.client.service.HostRateLimiter;
+import de.kriegel.studip.client.service.RequestPriority;
+import okhttp3.Call;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
 
 public class DownloadManager extends Observable {
 
     private static final Logger log = LoggerFactory.getLogger(DownloadManager.class);
 
+    public static final String PART_FILE_SUFFIX = ".part";
+
+    public static final long DEFAULT_SEGMENTED_DOWNLOAD_THRESHOLD = 64 * 1024 * 1024;
+    public static final int DEFAULT_DOWNLOAD_SEGMENTS = 4;
+
+    // how often a download is started over if it does not match its file ref
+    private static final int MAX_VERIFICATION_RETRIES = 2;
+
     private final List<CourseDownloadFinishedEventListener> courseDownloadFinishedEventListeners = new ArrayList<>();
 
     private final CourseService courseService;
@@ -49,7 +83,27 @@ public class DownloadManager extends Observable {
 
     private Path defaultDownloadDirectory;
 
-    private final ExecutorService es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final DownloadScheduler downloadScheduler = new DownloadScheduler(this::downloadFileRef);
+
+    private final DirectBufferPool bufferPool = new DirectBufferPool();
+
+    private final DownloadWatchdog downloadWatchdog = new DownloadWatchdog();
+
+    // runs the additional segments of segmented downloads, never waits on download workers
+    private final ExecutorService segmentExecutor = Executors.newCachedThreadPool();
+
+    // local copies of the files of the current synchronization by FileRef.file_id, completed once downloaded
+    private final Map<Id, CompletableFuture<File>> localFilesByFileId = new ConcurrentHashMap<>();
+
+    // tree of the last complete synchronization of each course, the next one is compared with it
+    private final Map<Id, FileRefTree> synchronizedFileRefTrees = new ConcurrentHashMap<>();
+
+    private SyncManifest syncManifest;
+
+    private volatile boolean pruneDeletedFiles = false;
+
+    private volatile long segmentedDownloadThreshold = DEFAULT_SEGMENTED_DOWNLOAD_THRESHOLD;
+    private volatile int downloadSegments = DEFAULT_DOWNLOAD_SEGMENTS;
 
     public DownloadManager(CourseService courseService, BasicHttpClient httpClient, Path defaultDownloadDirectory) {
         this.courseService = courseService;
@@ -61,7 +115,10 @@ public class DownloadManager extends Observable {
 
     public void close() {
         log.info("Closing DownloadManager");
-        es.shutdown();
+        downloadScheduler.close();
+        segmentExecutor.shutdown();
+        downloadWatchdog.close();
+        saveSyncManifest();
     }
 
     public boolean createDirIfNotExists(File dir) {
@@ -84,6 +141,115 @@ public class DownloadManager extends Observable {
         this.defaultDownloadDirectory = defaultDownloadDirectory.toPath();
     }
 
+    /**
+     * @return the manifest of the current download directory, loaded on first access
+     */
+    public synchronized SyncManifest getSyncManifest() {
+        File downloadDirectory = getDownloadDirectory().getAbsoluteFile();
+
+        if (syncManifest == null || !syncManifest.getFile().getParentFile().equals(downloadDirectory)) {
+            if (syncManifest != null) {
+                saveSyncManifest();
+            }
+
+            syncManifest = SyncManifest.load(downloadDirectory);
+        }
+
+        return syncManifest;
+    }
+
+    public void saveSyncManifest() {
+        SyncManifest syncManifest;
+
+        synchronized (this) {
+            syncManifest = this.syncManifest;
+        }
+
+        if (syncManifest == null) {
+            return;
+        }
+
+        try {
+            syncManifest.save();
+        } catch (IOException e) {
+            log.error("Could not save sync manifest " + syncManifest.getFile().getAbsolutePath(), e);
+        }
+    }
+
+    public boolean isPruneDeletedFiles() {
+        return pruneDeletedFiles;
+    }
+
+    /**
+     * @param pruneDeletedFiles
+     *            if true, local copies of files which have been deleted on the server are deleted as well
+     */
+    public void setPruneDeletedFiles(boolean pruneDeletedFiles) {
+        this.pruneDeletedFiles = pruneDeletedFiles;
+    }
+
+    /**
+     * Moves the local copy recorded in the given manifest entry to the new output file, so a file which has been
+     * renamed or moved on the server, e.g. by renaming its folder, does not have to be downloaded again. The
+     * directory it has been moved out of is left alone, it may be the target of a pending download.
+     *
+     * @param entry
+     * @param outputFile
+     * @return false, if the local copy does not exist or the output file is already taken
+     */
+    private boolean relocateLocalFile(SyncManifest.Entry entry, File outputFile) {
+        File localFile = new File(getDownloadDirectory(), entry.getPath());
+
+        if (!localFile.isFile() || outputFile.exists()) {
+            return false;
+        }
+
+        createDirIfNotExists(outputFile.getParentFile());
+
+        try {
+            moveAtomically(localFile, outputFile);
+        } catch (IOException e) {
+            log.warn("Could not move " + localFile.getAbsolutePath() + " to " + outputFile.getAbsolutePath(), e);
+            return false;
+        }
+
+        log.info("Moved " + localFile.getAbsolutePath() + " to " + outputFile.getAbsolutePath());
+
+        return true;
+    }
+
+    /**
+     * Deletes the given directory and its parents as long as they are empty, up to the download directory.
+     *
+     * @param dir
+     * @param keep
+     *            absolute directories which are never deleted, the deletion stops at the first of them
+     */
+    private void deleteEmptyDirectories(File dir, Set<File> keep) {
+        File downloadDirectory = getDownloadDirectory().getAbsoluteFile();
+        dir = dir.getAbsoluteFile();
+
+        while (dir != null && !dir.equals(downloadDirectory) && dir.toPath().startsWith(downloadDirectory.toPath())
+                && !keep.contains(dir)) {
+            String[] children = dir.list();
+
+            if (children == null || children.length > 0 || !dir.delete()) {
+                return;
+            }
+
+            dir = dir.getParentFile();
+        }
+    }
+
+    /**
+     * @param file
+     * @return path of the file relative to the download directory, as stored in the sync manifest
+     */
+    private String getManifestPath(File file) {
+        return getDownloadDirectory().getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath())
+                .toString().replace(File.separatorChar, '/');
+    }
+
     public void addCourseDownloadFinishedEventListener(
             CourseDownloadFinishedEventListener courseDownloadFinishedEventListener) {
         this.courseDownloadFinishedEventListeners.add(courseDownloadFinishedEventListener);
@@ -98,6 +264,177 @@ public class DownloadManager extends Observable {
         return courseDownloadFinishedEventListeners;
     }
 
+    /**
+     * Queues the download of a single file in the global download queue. If the same file (by file_id) has already
+     * been downloaded or queued since the last {@link #clearLocalFileIndex()}, the output file is linked to that
+     * local copy instead, as soon as it is available.
+     *
+     * @param course
+     * @param fileRef
+     * @param outputFile
+     * @return the queued job
+     */
+    public DownloadJob submitDownload(Course course, FileRef fileRef, File outputFile) {
+        DownloadJob job = new DownloadJob(course, fileRef, outputFile);
+
+        if (fileRef.getFile_id() == null) {
+            return downloadScheduler.submit(job);
+        }
+
+        CompletableFuture<File> localFile = localFilesByFileId.putIfAbsent(fileRef.getFile_id(), job.getFuture());
+
+        if (localFile == null) {
+            return downloadScheduler.submit(job);
+        }
+
+        // listed while it waits, so cancelling all downloads reaches it as well
+        downloadScheduler.register(job);
+        localFile.whenComplete((file, throwable) -> linkOrDownload(file, throwable, job));
+
+        return job;
+    }
+
+    /**
+     * Adds an up to date local copy of the given file ref to the index used to deduplicate downloads.
+     *
+     * @param fileRef
+     * @param file
+     */
+    public void indexLocalFile(FileRef fileRef, File file) {
+        if (fileRef.getFile_id() != null) {
+            localFilesByFileId.putIfAbsent(fileRef.getFile_id(), CompletableFuture.completedFuture(file));
+        }
+    }
+
+    /**
+     * Forgets all local copies used to deduplicate downloads. Has to be called at the start of each
+     * synchronization, since local files may have been changed or removed in between.
+     */
+    public void clearLocalFileIndex() {
+        localFilesByFileId.clear();
+    }
+
+    private void linkOrDownload(File localFile, Throwable throwable, DownloadJob job) {
+        if (throwable instanceof CancellationException) {
+            // the other copy has been cancelled, e.g. because the sync was interrupted
+            job.cancel();
+            downloadScheduler.unregister(job);
+            return;
+        }
+
+        if (job.isCancelRequested()) {
+            downloadScheduler.unregister(job);
+            return;
+        }
+
+        if (throwable != null || localFile.length() != job.getFileRef().getSize()) {
+            // the other copy failed or has been changed locally, download this one on its own
+            downloadScheduler.submit(job);
+            return;
+        }
+
+        try {
+            if (!job.start()) {
+                // cancelled in the meantime
+                return;
+            }
+
+            linkLocalFile(localFile, job.getOutputFile());
+            job.complete();
+        } catch (IOException e) {
+            log.error("Could not link " + job.getOutputFile().getAbsolutePath() + " to " + localFile, e);
+            job.fail(e);
+        } finally {
+            downloadScheduler.unregister(job);
+        }
+    }
+
+    /**
+     * Creates the output file as hard link to the local file or, if the file system does not support hard links
+     * (e.g. across volumes), as copy. Goes through the part file, so the output file is replaced atomically.
+     *
+     * @param localFile
+     * @param outputFile
+     * @throws IOException
+     */
+    private void linkLocalFile(File localFile, File outputFile) throws IOException {
+        File partFile = getPartFile(outputFile);
+        Files.deleteIfExists(partFile.toPath());
+
+        try {
+            Files.createLink(partFile.toPath(), localFile.toPath());
+            log.debug("Linked " + outputFile.getAbsolutePath() + " to " + localFile.getAbsolutePath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(localFile.toPath(), partFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.debug("Copied " + localFile.getAbsolutePath() + " to " + outputFile.getAbsolutePath());
+        }
+
+        moveAtomically(partFile, outputFile);
+    }
+
+    public boolean cancelDownload(DownloadJob downloadJob) {
+        return downloadJob.cancel();
+    }
+
+    /**
+     * Cancels all queued and running downloads of the given course.
+     *
+     * @param course
+     * @return amount of cancelled downloads
+     */
+    public int cancelDownloads(Course course) {
+        return downloadScheduler.cancel(job -> job.getCourse().equals(course));
+    }
+
+    public int cancelAllDownloads() {
+        return downloadScheduler.cancel(job -> true);
+    }
+
+    /**
+     * @return all queued and running downloads
+     */
+    public List<DownloadJob> getDownloadJobs() {
+        return downloadScheduler.getJobs();
+    }
+
+    public long getSegmentedDownloadThreshold() {
+        return segmentedDownloadThreshold;
+    }
+
+    /**
+     * @param segmentedDownloadThreshold
+     *            files of at least this size in bytes are downloaded in several segments at once
+     */
+    public void setSegmentedDownloadThreshold(long segmentedDownloadThreshold) {
+        this.segmentedDownloadThreshold = segmentedDownloadThreshold;
+    }
+
+    public int getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    /**
+     * @param downloadSegments
+     *            amount of Range requests a large file is split into, 1 disables segmented downloads
+     */
+    public void setDownloadSegments(int downloadSegments) {
+        this.downloadSegments = downloadSegments;
+    }
+
+    /**
+     * @return the global download queue, e.g. to read its counters or change the amount of workers
+     */
+    public DownloadScheduler getDownloadScheduler() {
+        return downloadScheduler;
+    }
+
+    /**
+     * @return the watchdog aborting stalled transfers, e.g. to read its counters or change the minimum throughput
+     */
+    public DownloadWatchdog getDownloadWatchdog() {
+        return downloadWatchdog;
+    }
+
     private File getSemesterDirectory(Semester semester) {
         return new File(getDownloadDirectory().getAbsolutePath() + "/" + semester.getTitleAsValidFilename());
     }
@@ -140,122 +477,827 @@ public class DownloadManager extends Observable {
         return createDirIfNotExists(courseDir);
     }
 
+    /**
+     * Starts a download of the given course to which the file ref nodes of the course can be passed while the
+     * course is still being crawled. Each file is downloaded as soon as it is passed.
+     *
+     * @param course
+     * @param cancelled
+     * @return
+     */
+    public CourseDownload startCourseDownload(Course course, AtomicBoolean cancelled) {
+        File courseDir = createCourseDirectoryIfNotExists(course) ? getCourseDirectory(course) : null;
+
+        if (courseDir == null) {
+            log.error("Could not create course directory for " + course.getTitle());
+        }
+
+        return new CourseDownload(course, courseDir, cancelled);
+    }
+
     public void downloadFileRefTree(Course course, FileRefTree fileRefTree, AtomicBoolean cancelled) {
+        CourseDownload courseDownload = startCourseDownload(course, cancelled);
 
-        if (!createCourseDirectoryIfNotExists(course)) {
-            return;
+        passFileRefNodesRecursive(courseDownload, fileRefTree.getRoot(), "");
+
+        courseDownload.finish(fileRefTree).join();
+    }
+
+    private void passFileRefNodesRecursive(CourseDownload courseDownload, FileRefNode node, String path) {
+        for (FileRefNode child : node.getChildren()) {
+            String childPath = FileRefTree.getChildPath(path, child);
+
+            courseDownload.onFileRefNode(child, childPath);
+
+            if (child.isDirectory()) {
+                passFileRefNodesRecursive(courseDownload, child, childPath);
+            }
         }
+    }
 
-        File parentDir = getCourseDirectory(course);
+    /**
+     * Downloads the file into a part file next to the output file, which is renamed to the output file once it is
+     * complete. The download is verified against the size of the file ref and started over up to
+     * {@link #MAX_VERIFICATION_RETRIES} times if it does not match. The checksum computed while downloading is
+     * stored in the job.
+     *
+     * @param job
+     * @throws IOException
+     */
+    private void downloadFileRef(DownloadJob job) throws IOException {
+        FileRef fileRef = job.getFileRef();
+        File outputFile = job.getOutputFile();
+        File partFile = getPartFile(outputFile);
 
-        Queue<CompletableFuture<Void>> downloadTasks = new ConcurrentLinkedQueue<>();
-        List<File> toBeDownloadedFiles = new ArrayList<>();
+        for (int attempt = 0;; attempt++) {
+            byte[] checksum;
 
-        downloadFileRefTreeRecursive(parentDir, fileRefTree.getRoot(), downloadTasks, toBeDownloadedFiles);
+            try {
+                checksum = downloadPartFile(job, partFile);
+            } catch (DownloadVerificationException e) {
+                partFile.delete();
 
-        int size = downloadTasks.size();
+                if (attempt >= MAX_VERIFICATION_RETRIES) {
+                    throw e;
+                }
 
-        int count = 0;
-        log.debug(count + "/" + size + " : " + course.getTitle());
-        for (CompletableFuture<Void> task : downloadTasks) {
-            if (cancelled != null && cancelled.get()) {
-                task.cancel(true);
+                log.warn(e.getMessage() + ", starting over");
                 continue;
             }
 
-            try {
-                task.get();
-                count++;
-                log.debug(count + "/" + size + " : " + course.getTitle());
-                setChanged();
-                notifyObservers(new CourseDownloadProgressEvent(course, count / (double) size));
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+            if (checksum == null) {
+                // cancelled
+                return;
             }
 
-        }
+            job.setChecksum(checksum);
+            moveAtomically(partFile, outputFile);
 
-        if (cancelled != null && cancelled.get()) {
+            log.debug("Downloaded " + fileRef.getName() + " " + (outputFile.length() / 1048576f) + " MB");
             return;
         }
+    }
+
+    /**
+     * Downloads the file into the part file. If a part file of a previous attempt exists and the file did not
+     * change since then, the download is continued with a Range request. Servers ignoring the Range header are
+     * handled by starting over.
+     *
+     * @param job
+     * @param partFile
+     * @return checksum of the complete part file or null, if the job has been cancelled
+     * @throws IOException
+     * @throws DownloadVerificationException
+     *             if the amount of downloaded bytes does not match the size of the file ref
+     */
+    private byte[] downloadPartFile(DownloadJob job, File partFile) throws IOException {
+        FileRef fileRef = job.getFileRef();
+
+        long offset = getResumeOffset(fileRef, partFile);
+
+        if (offset == 0 && isSegmented(fileRef)) {
+            return downloadSegmented(job, partFile);
+        }
+
+        ChunkedDigest digest = new ChunkedDigest();
+
+        if (offset > 0 && offset == fileRef.getSize()) {
+            // completed, but not renamed before the previous run stopped
+            hashPrefix(partFile, offset, digest);
+            return ChunkedDigest.combine(digest.finish());
+        }
 
-        if (size > 0) {
-            setChanged();
-            notifyObservers(new CourseDownloadProgressEvent(course, count / (double) size));
-            for (CourseDownloadFinishedEventListener eventListener : courseDownloadFinishedEventListeners) {
-                eventListener.onCourseDownloadFinished(new CourseDownloadFinishedEvent(course, toBeDownloadedFiles));
+        Map<String, String> headers = new HashMap<>();
+        if (offset > 0) {
+            headers.put("Range", "bytes=" + offset + "-");
+        }
+
+        Call call = newDownloadCall(fileRef, headers);
+        Response response = requestDownload(fileRef, call);
+
+        if (offset > 0 && response.code() == 416) {
+            response.close();
+            log.debug("Range not satisfiable for " + partFile.getAbsolutePath() + ", starting over");
+            partFile.delete();
+            return downloadPartFile(job, partFile);
+        }
+
+        try (ResponseBody body = response.body()) {
+            if (!response.isSuccessful()) {
+                // e.g. a 503, the part file is continued by the next attempt, a changed file is detected by its
+                // size and chdate
+                throw new HttpStatusException(response.request().url().toString(), response.code(),
+                        response.message());
+            }
+
+            boolean append = offset > 0 && response.code() == 206 && getContentRangeStart(response) == offset;
+
+            if (offset > 0) {
+                log.debug((append ? "Resuming " : "Restarting ") + fileRef.getName() + " at byte "
+                        + (append ? offset : 0));
+            }
+
+            if (append) {
+                // the only bytes read from disk, the rest is hashed while it passes through
+                hashPrefix(partFile, offset, digest);
             }
-            log.info("DONE : " + course.getTitle());
+
+            try (FileChannel channel = append
+                    ? FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)
+                    : FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                if (transfer(fileRef.getName(), call, body.source(), channel, append ? offset : 0,
+                        fileRef.getSize(), digest, job::isCancelRequested) == -1) {
+                    // cancelled, the part file is continued by the next run
+                    return null;
+                }
+            }
+        }
+
+        if (digest.getByteCount() != fileRef.getSize()) {
+            throw new DownloadVerificationException(fileRef.getName(), fileRef.getSize(), digest.getByteCount());
         }
 
+        return ChunkedDigest.combine(digest.finish());
     }
 
-    private void downloadFileRefTreeRecursive(File parentDir, FileRefNode node,
-                                              Queue<CompletableFuture<Void>> downloadTasks, List<File> toBeDownloadedFiles) {
+    private void hashPrefix(File partFile, long length, ChunkedDigest digest) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire(length);
 
-        for (FileRefNode child : node.getChildren()) {
-            if (child.isDirectory()) {
-                File dir = new File(parentDir.getAbsolutePath() + "/" + child.getFolder().getNameValidAsFilename());
-                createDirIfNotExists(dir);
+        try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.READ)) {
+            long position = 0;
 
-                downloadFileRefTreeRecursive(dir, child, downloadTasks, toBeDownloadedFiles);
-            } else {
+            while (position < length) {
+                buffer.limit((int) Math.min(buffer.capacity(), length - position));
 
-                FileRef fileRef = child.getFileRef();
-                File outputFile = new File(parentDir.getAbsolutePath() + "/" + fileRef.getName());
+                int read = channel.read(buffer, position);
+                if (read == -1) {
+                    throw new DownloadVerificationException(partFile.getName(), length, position);
+                }
 
-                // dont create a download task for a file which has already been downloaded AND
-                // is up to date
-                if (outputFile.exists()) {
-                    if (fileRef.getChdate() < outputFile.lastModified()) {
-                        continue;
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+
+                position += read;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private boolean isSegmented(FileRef fileRef) {
+        return downloadSegments > 1 && fileRef.getSize() >= segmentedDownloadThreshold;
+    }
+
+    /**
+     * Downloads the file in up to {@link #getDownloadSegments()} Range requests at once into a preallocated part
+     * file. The first segment is requested on the calling worker and decides whether the server supports ranges at
+     * all, the other segments run on the segment executor. Segments start at chunk boundaries of the
+     * {@link ChunkedDigest}, so each segment is hashed while it is downloaded. Each segment has to deliver exactly
+     * its range. The other segments are requested again if they do not, otherwise the part file is dropped.
+     * Segmented part files are never continued, since it is unknown which segments are complete. No segment waits
+     * for the others while its body, and with it its {@link RequestPriority#BULK} permit, is still open.
+     *
+     * @param job
+     * @param partFile
+     * @return checksum of the complete part file or null, if the job has been cancelled
+     * @throws IOException
+     */
+    private byte[] downloadSegmented(DownloadJob job, File partFile) throws IOException {
+        FileRef fileRef = job.getFileRef();
+        long size = fileRef.getSize();
+        long segmentLength = getSegmentLength(size, downloadSegments);
+        int segments = (int) ((size + segmentLength - 1) / segmentLength);
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        BooleanSupplier cancelled = () -> failed.get() || job.isCancelRequested();
+
+        byte[] checksum = null;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(partFile, "rw");
+                FileChannel channel = randomAccessFile.getChannel()) {
+            randomAccessFile.setLength(size);
+
+            long firstSegmentLength = Math.min(segmentLength, size);
+            Call firstCall = newDownloadCall(fileRef, getRangeHeader(0, firstSegmentLength - 1));
+            Response firstResponse = requestDownload(fileRef, firstCall);
+
+            try (ResponseBody body = firstResponse.body()) {
+                if (!firstResponse.isSuccessful()) {
+                    throw new HttpStatusException(firstResponse.request().url().toString(), firstResponse.code(),
+                            firstResponse.message());
+                }
+
+                ChunkedDigest firstDigest = new ChunkedDigest();
+
+                if (firstResponse.code() != 206 || getContentRangeStart(firstResponse) != 0) {
+                    log.debug("Server does not support ranges, downloading " + fileRef.getName() + " at once");
+
+                    if (transfer(fileRef.getName(), firstCall, body.source(), channel, 0, size, firstDigest,
+                            cancelled) == -1) {
+                        return null;
                     }
-                } else {
+
+                    if (firstDigest.getByteCount() != size) {
+                        throw new DownloadVerificationException(fileRef.getName(), size, firstDigest.getByteCount());
+                    }
+
+                    checksum = ChunkedDigest.combine(firstDigest.finish());
+                    return checksum;
+                }
+
+                List<CompletableFuture<ChunkedDigest>> otherSegments = new ArrayList<>();
+
+                for (int segment = 1; segment < segments; segment++) {
+                    long start = segment * segmentLength;
+                    long end = Math.min(start + segmentLength, size) - 1;
+
+                    otherSegments.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return downloadSegment(fileRef, channel, start, end, cancelled);
+                        } catch (IOException e) {
+                            failed.set(true);
+                            throw new UncheckedIOException(e);
+                        }
+                    }, segmentExecutor));
+                }
+
+                BufferedSource firstSource = body.source();
+
+                if (transfer(fileRef.getName(), firstCall, limit(firstSource, firstSegmentLength), channel, 0,
+                        firstSegmentLength, firstDigest, cancelled) != -1
+                        && (firstDigest.getByteCount() != firstSegmentLength || !firstSource.exhausted())) {
+                    failed.set(true);
+                }
+
+                // returns the permit of the first segment, the other segments may be waiting for it
+                body.close();
+
+                List<byte[]> chunkDigests = new ArrayList<>();
+                DownloadStalledException stalled = null;
+                long downloaded = firstDigest.getByteCount();
+                chunkDigests.addAll(firstDigest.finish());
+
+                for (CompletableFuture<ChunkedDigest> otherSegment : otherSegments) {
                     try {
-                        outputFile.createNewFile();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                        ChunkedDigest segmentDigest = otherSegment.get();
+
+                        downloaded += segmentDigest.getByteCount();
+                        chunkDigests.addAll(segmentDigest.finish());
+                    } catch (InterruptedException | ExecutionException e) {
+                        failed.set(true);
+
+                        if (e.getCause() instanceof UncheckedIOException
+                                && e.getCause().getCause() instanceof DownloadStalledException) {
+                            stalled = (DownloadStalledException) e.getCause().getCause();
+                        }
                     }
                 }
 
-                toBeDownloadedFiles.add(outputFile);
+                if (job.isCancelRequested()) {
+                    return null;
+                }
 
-                downloadTasks.add(CompletableFuture.runAsync(new Runnable() {
+                if (stalled != null) {
+                    throw stalled;
+                }
 
-                    public void run() {
-                        Response response;
+                if (failed.get() || downloaded != size) {
+                    throw new DownloadVerificationException(fileRef.getName(), size, downloaded);
+                }
 
-                        try {
-                            response = httpClient.get(SubPaths.API
-                                    + Endpoints.FILE_DOWNLOAD.getPath().replace(":file_id", fileRef.getId().asHex())).get();
+                checksum = ChunkedDigest.combine(chunkDigests);
+                return checksum;
+            }
+        } finally {
+            if (checksum == null) {
+                // stop the other segments
+                failed.set(true);
+                partFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Downloads a single segment. Nothing beyond the end of the segment is written, so a segment which did not
+     * deliver exactly its length is requested again without touching the other segments.
+     *
+     * @return digest of the bytes written at the start of the segment
+     */
+    private ChunkedDigest downloadSegment(FileRef fileRef, FileChannel channel, long start, long end,
+            BooleanSupplier cancelled) throws IOException {
+        String name = fileRef.getName() + " [" + start + "-" + end + "]";
+        long length = end - start + 1;
+
+        for (int attempt = 0;; attempt++) {
+            Call call = newDownloadCall(fileRef, getRangeHeader(start, end));
+            Response response = requestDownload(fileRef, call);
+
+            try (ResponseBody body = response.body()) {
+                if (response.code() != 206 || getContentRangeStart(response) != start) {
+                    throw new IOException("Unexpected response for range " + start + "-" + end + " of "
+                            + fileRef.getName() + ": " + response.code());
+                }
+
+                BufferedSource source = body.source();
+                ChunkedDigest digest = new ChunkedDigest();
+
+                if (transfer(name, call, limit(source, length), channel, start, length, digest, cancelled) == -1) {
+                    return digest;
+                }
+
+                if (digest.getByteCount() == length && source.exhausted()) {
+                    return digest;
+                }
+
+                DownloadVerificationException e = new DownloadVerificationException(name, length,
+                        source.exhausted() ? digest.getByteCount() : digest.getByteCount() + 1);
+
+                if (attempt >= MAX_VERIFICATION_RETRIES) {
+                    throw e;
+                }
+
+                log.warn(e.getMessage() + ", requesting the segment again");
+            }
+        }
+    }
+
+    /**
+     * @param source
+     * @param length
+     * @return channel which ends after the given amount of bytes of the source
+     */
+    private static ReadableByteChannel limit(ReadableByteChannel source, long length) {
+        return new ReadableByteChannel() {
+
+            private long remaining = length;
+
+            @Override
+            public int read(ByteBuffer buffer) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+
+                int limit = buffer.limit();
+                buffer.limit((int) Math.min(limit, buffer.position() + remaining));
+
+                try {
+                    int read = source.read(buffer);
+
+                    if (read > 0) {
+                        remaining -= read;
+                    }
+                    return read;
+                } finally {
+                    buffer.limit(limit);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return source.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                source.close();
+            }
 
-                            BufferedInputStream bis = new BufferedInputStream(response.body().byteStream());
-                            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(outputFile));
+        };
+    }
 
-                            byte[] buffer = new byte[512];
+    /**
+     * @param size
+     * @param segments
+     * @return length of all but the last segment, a multiple of the digest chunk size, so the chunk digests of the
+     *         segments can be concatenated
+     */
+    static long getSegmentLength(long size, int segments) {
+        long segmentLength = (size + segments - 1) / segments;
 
-                            while (bis.read(buffer) != -1) {
-                                bos.write(buffer);
-                            }
+        return (segmentLength + ChunkedDigest.CHUNK_SIZE - 1) / ChunkedDigest.CHUNK_SIZE * ChunkedDigest.CHUNK_SIZE;
+    }
 
-                            bis.close();
-                            bos.close();
+    private static Map<String, String> getRangeHeader(long start, long end) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=" + start + "-" + end);
+        return headers;
+    }
 
-                            log.debug("Downloaded " + child.getFileRef().getName() + " " + (outputFile.length() / 1048576f)
-                                    + " MB");
+    private Call newDownloadCall(FileRef fileRef, Map<String, String> headers) throws IOException {
+        try {
+            return httpClient.newCall(SubPaths.API
+                    + Endpoints.FILE_DOWNLOAD.getPath().replace(":file_id", fileRef.getId().asHex()), headers,
+                    RequestPriority.BULK);
+        } catch (URISyntaxException e) {
+            throw new IOException("Could not request " + fileRef.getName(), e);
+        }
+    }
+
+    private Response requestDownload(FileRef fileRef, Call call) throws IOException {
+        try {
+            return httpClient.enqueue(call).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Could not request " + fileRef.getName(), e);
+        }
+    }
+
+    public static File getPartFile(File outputFile) {
+        return new File(outputFile.getParentFile(), outputFile.getName() + PART_FILE_SUFFIX);
+    }
+
+    /**
+     * @param fileRef
+     * @param partFile
+     * @return length of the part file, if it can be continued, otherwise 0
+     */
+    private long getResumeOffset(FileRef fileRef, File partFile) {
+        if (!partFile.isFile()) {
+            return 0;
+        }
+
+        long length = partFile.length();
+
+        // the part file has to be newer than the file on the server, chdate is in seconds
+        if (length > 0 && fileRef.getChdate() * 1000 < partFile.lastModified()
+                && (fileRef.getSize() <= 0 || length <= fileRef.getSize())) {
+            return length;
+        }
 
-                        } catch (URISyntaxException | IOException e) {
-                            e.printStackTrace();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        } catch (ExecutionException e) {
-                            e.printStackTrace();
+        partFile.delete();
+        return 0;
+    }
+
+    /**
+     * @param response
+     * @return first byte of a "Content-Range: bytes start-end/total" header or -1
+     */
+    private static long getContentRangeStart(Response response) {
+        String contentRange = response.header("Content-Range");
+
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(6, contentRange.indexOf('-')).trim());
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Streams the source into the channel at the given position through a pooled direct buffer. The buffer is
+     * filled completely before it is written, so the file is written in chunks of the buffer size regardless of how
+     * the network delivers the data. Nothing is allocated per chunk. Positional writes allow several transfers into
+     * the same channel at once. The transfer is watched by the {@link DownloadWatchdog}, which aborts it by
+     * cancelling the call if it stalls.
+     *
+     * @param name
+     *            used for logging
+     * @param call
+     *            the call the source belongs to
+     * @param source
+     * @param channel
+     * @param position
+     * @param expectedSize
+     *            used to pick the buffer size
+     * @param digest
+     *            updated with every transferred byte
+     * @param cancelled
+     * @return amount of written bytes or -1, if the transfer has been cancelled in between
+     * @throws IOException
+     * @throws DownloadStalledException
+     *             if the transfer has been aborted by the watchdog
+     */
+    private long transfer(String name, Call call, ReadableByteChannel source, FileChannel channel, long position,
+            long expectedSize, ChunkedDigest digest, BooleanSupplier cancelled) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire(expectedSize);
+
+        try (DownloadWatchdog.Transfer watchedTransfer = downloadWatchdog.register(name, call::cancel)) {
+            // the source is read on this thread, so pauses of a bandwidth limit reach the watchdog before they begin
+            HostRateLimiter.setPauseListener(
+                    delayNanos -> watchedTransfer.pause(TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+            long written = 0;
+            boolean endOfStream = false;
+
+            while (!endOfStream) {
+                if (cancelled.getAsBoolean()) {
+                    return -1;
+                }
+
+                while (buffer.hasRemaining()) {
+                    int read;
+
+                    try {
+                        read = source.read(buffer);
+                    } catch (IOException e) {
+                        if (watchedTransfer.getAbortReason() != null) {
+                            throw new DownloadStalledException(
+                                    "Transfer of " + name + " aborted: " + watchedTransfer.getAbortReason(), e);
                         }
+                        throw e;
+                    }
+
+                    if (read == -1) {
+                        endOfStream = true;
+                        break;
                     }
 
-                }, es));
+                    watchedTransfer.progress(read);
+                }
+
+                if (watchedTransfer.getAbortReason() != null) {
+                    throw new DownloadStalledException(
+                            "Transfer of " + name + " aborted: " + watchedTransfer.getAbortReason());
+                }
+
+                buffer.flip();
+                digest.update(buffer);
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+
+            return written;
+        } finally {
+            HostRateLimiter.setPauseListener(null);
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Download of a single course. File ref nodes are passed in while the course is crawled, every file which is
+     * not up to date is queued in the global download queue right away. {@link #finish()} notifies the listeners of
+     * the DownloadManager as soon as all queued files have been downloaded.
+     */
+    public class CourseDownload implements FileRefNodeListener {
+
+        private final Course course;
+        private final File courseDir;
+        private final AtomicBoolean cancelled;
+
+        private final SyncManifest syncManifest = getSyncManifest();
+        // file refs of the course passed so far, to detect files deleted on the server
+        private final Set<Id> fileRefIds = ConcurrentHashMap.newKeySet();
+        // absolute directories of the folders passed so far, never deleted as empty
+        private final Set<File> directories = ConcurrentHashMap.newKeySet();
+        // local directories files have been moved or deleted from, deleted in the end if they are empty
+        private final Set<File> vacatedDirectories = ConcurrentHashMap.newKeySet();
+
+        private final Queue<DownloadJob> downloadJobs = new ConcurrentLinkedQueue<>();
+        // completes after the progress of the corresponding job has been published
+        private final Queue<CompletableFuture<?>> reportedJobs = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger finishedJobs = new AtomicInteger();
+
+        private CourseDownload(Course course, File courseDir, AtomicBoolean cancelled) {
+            this.course = course;
+            this.courseDir = courseDir;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public void onFileRefNode(FileRefNode node, String path) {
+            if (courseDir == null || isCancelled()) {
+                return;
+            }
+
+            if (node.isDirectory()) {
+                File dir = new File(courseDir, path);
+
+                directories.add(dir.getAbsoluteFile());
+                createDirIfNotExists(dir);
+                return;
+            }
+
+            FileRef fileRef = node.getFileRef();
+            File outputFile = new File(courseDir, path);
+            String manifestPath = getManifestPath(outputFile);
+
+            fileRefIds.add(fileRef.getId());
+
+            SyncManifest.Entry entry = syncManifest.get(fileRef.getId());
+
+            // dont create a download task for a file which has already been downloaded AND
+            // is up to date
+            if (entry != null && entry.isUpToDate(fileRef, manifestPath)) {
+                indexLocalFile(fileRef, outputFile);
+                return;
+            }
+
+            if (entry != null && entry.getSize() == fileRef.getSize() && entry.getChdate() == fileRef.getChdate()
+                    && relocateLocalFile(entry, outputFile)) {
+                // renamed or moved on the server
+                vacatedDirectories.add(new File(getDownloadDirectory(), entry.getPath()).getParentFile());
+                syncManifest.put(createManifestEntry(fileRef, manifestPath, null));
+                indexLocalFile(fileRef, outputFile);
+                return;
+            }
+
+            if (entry == null && outputFile.isFile() && outputFile.length() == fileRef.getSize()) {
+                // downloaded before the sync manifest existed
+                syncManifest.put(createManifestEntry(fileRef, manifestPath, null));
+                indexLocalFile(fileRef, outputFile);
+                return;
+            }
+
+            createDirIfNotExists(outputFile.getParentFile());
+
+            DownloadJob job = submitDownload(course, fileRef, outputFile);
+            downloadJobs.add(job);
+
+            reportedJobs.add(job.getFuture().handle((file, throwable) -> {
+                int count = finishedJobs.incrementAndGet();
+                int size = downloadJobs.size();
+
+                if (throwable == null) {
+                    syncManifest.put(createManifestEntry(fileRef, manifestPath, job.getChecksum()));
+                } else if (!job.getFuture().isCancelled()) {
+                    log.warn("Could not download " + outputFile.getAbsolutePath() + ": " + throwable.getMessage());
+                }
+
+                log.debug(count + "/" + size + " : " + course.getTitle());
+                setChanged();
+                notifyObservers(new CourseDownloadProgressEvent(course, count / (double) size));
+                return null;
+            }));
+        }
+
+        private boolean isCancelled() {
+            return cancelled != null && cancelled.get();
+        }
+
+        /**
+         * Has to be called after all nodes of the course have been passed. Does not block. The tree is compared with
+         * the one of the previous synchronization of the course, the local directories of folders which have been
+         * moved or removed on the server are deleted if they are empty.
+         *
+         * @param fileRefTree
+         *            the tree whose nodes have been passed, null to skip the comparison
+         * @return future which completes after every queued download of the course has finished and the listeners
+         *         have been notified
+         */
+        public CompletableFuture<Void> finish(FileRefTree fileRefTree) {
+            return finish(fileRefTree, true);
+        }
+
+        /**
+         * Has to be called instead of {@link #finish(FileRefTree)} if the crawl of the course failed. Waits for the
+         * downloads queued so far, but does not treat files which have not been passed as deleted on the server.
+         *
+         * @return future which completes after every queued download of the course has finished
+         */
+        public CompletableFuture<Void> finishIncomplete() {
+            return finish(null, false);
+        }
+
+        private CompletableFuture<Void> finish(FileRefTree fileRefTree, boolean crawlComplete) {
+            if (isCancelled()) {
+                downloadJobs.forEach(DownloadJob::cancel);
             }
+
+            CompletableFuture<?>[] jobFutures = reportedJobs.toArray(new CompletableFuture<?>[reportedJobs.size()]);
+
+            return CompletableFuture.allOf(jobFutures).thenRun(() -> {
+                if (isCancelled()) {
+                    saveSyncManifest();
+                    return;
+                }
+
+                if (courseDir != null && crawlComplete) {
+                    removeDeletedFiles();
+                    addVacatedFolders(fileRefTree);
+                    removeVacatedDirectories();
+                }
+                saveSyncManifest();
+
+                List<File> downloadedFiles = new ArrayList<>();
+                for (DownloadJob job : downloadJobs) {
+                    if (job.getState() == DownloadJob.State.COMPLETED) {
+                        downloadedFiles.add(job.getOutputFile());
+                    }
+                }
+
+                if (downloadedFiles.isEmpty()) {
+                    return;
+                }
+
+                for (CourseDownloadFinishedEventListener eventListener : courseDownloadFinishedEventListeners) {
+                    eventListener.onCourseDownloadFinished(new CourseDownloadFinishedEvent(course, downloadedFiles));
+                }
+                log.info("DONE : " + course.getTitle());
+            });
+        }
+
+        private SyncManifest.Entry createManifestEntry(FileRef fileRef, String manifestPath, byte[] checksum) {
+            return new SyncManifest.Entry(fileRef.getId(), fileRef.getFile_id(), course.getId(), fileRef.getSize(),
+                    fileRef.getChdate(), manifestPath, checksum);
         }
+
+        /**
+         * Removes the manifest entries of files which are not part of the course anymore and, if enabled, deletes
+         * their local copies.
+         */
+        private void removeDeletedFiles() {
+            for (SyncManifest.Entry entry : syncManifest.getDeletedEntries(course.getId(), fileRefIds)) {
+                syncManifest.remove(entry.getFileRefId());
+
+                File localFile = new File(getDownloadDirectory(), entry.getPath());
+
+                if (pruneDeletedFiles) {
+                    if (localFile.delete()) {
+                        log.info("Deleted " + localFile.getAbsolutePath() + ", it has been deleted on the server");
+                        vacatedDirectories.add(localFile.getParentFile());
+                    }
+                } else {
+                    log.info(localFile.getAbsolutePath() + " has been deleted on the server");
+                }
+            }
+        }
+
+        /**
+         * Adds the previous directories of the folders and files which have been moved or removed since the previous
+         * synchronization of the course to the vacated directories.
+         */
+        private void addVacatedFolders(FileRefTree fileRefTree) {
+            if (fileRefTree == null) {
+                return;
+            }
+
+            FileRefTree previousFileRefTree = synchronizedFileRefTrees.put(course.getId(), fileRefTree);
+
+            if (previousFileRefTree == null) {
+                return;
+            }
+
+            FileRefTreeDiff diff = fileRefTree.diff(previousFileRefTree);
+
+            if (diff.isEmpty()) {
+                return;
+            }
+
+            log.debug(course.getTitle() + ": " + diff);
+
+            List<FileRefTreeDiff.Entry> vacated = new ArrayList<>(diff.getMoved());
+            vacated.addAll(diff.getRemoved());
+
+            for (FileRefTreeDiff.Entry entry : vacated) {
+                File previous = new File(courseDir, entry.getPreviousPath());
+
+                vacatedDirectories.add(entry.isDirectory() ? previous : previous.getParentFile());
+            }
+        }
+
+        /**
+         * Deletes the vacated directories and their parents as far as they are empty. Only called after every job
+         * of the course has finished and the crawl is complete, so directories of the current folders, including
+         * those whose downloads were still queued, are known and kept.
+         */
+        private void removeVacatedDirectories() {
+            Set<File> keep = new HashSet<>(directories);
+            keep.add(courseDir.getAbsoluteFile());
+
+            for (File dir : vacatedDirectories) {
+                deleteEmptyDirectories(dir, keep);
+            }
+        }
+
+        public List<DownloadJob> getDownloadJobs() {
+            return new ArrayList<>(downloadJobs);
+        }
+
     }
 
 }
@@ -0,0 +1,326 @@
+package de.kriegel.studip.client.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.kriegel.studip.client.exception.DownloadStalledException;
+
+/**
+ * Single queue for the downloads of all courses. Jobs are processed in FIFO order by a fixed amount of workers and
+ * nobody waits on a worker from within a worker, so syncing many courses at once cannot starve the pool.
+ * <p>
+ * The amount of queued jobs is limited. Jobs submitted beyond that limit fail right away with a
+ * {@link RejectedExecutionException} instead of blocking the submitting thread, which usually is a http client
+ * thread delivering crawl results. Files of rejected jobs are not created, so they are picked up by the next sync.
+ * <p>
+ * Jobs whose transfer has been aborted by the {@link DownloadWatchdog} are put back at the end of the queue up to
+ * {@link #getMaxReschedules()} times, so a stalled connection does not block a worker and the download is resumed
+ * later on a new connection.
+ * <p>
+ * At most one job per output file is active. A job submitted for a file which is already queued or being
+ * downloaded joins that job instead of writing to the same part file concurrently.
+ *
+ * @author Josef
+ */
+public class DownloadScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_MAX_PENDING_JOBS = 10000;
+    public static final int DEFAULT_MAX_RESCHEDULES = 3;
+
+    interface Downloader {
+        public void download(DownloadJob job) throws IOException;
+    }
+
+    private final Downloader downloader;
+
+    private final ThreadPoolExecutor executor;
+
+    private volatile int maxPendingJobs = DEFAULT_MAX_PENDING_JOBS;
+    private volatile int maxReschedules = DEFAULT_MAX_RESCHEDULES;
+
+    private final Set<DownloadJob> jobs = ConcurrentHashMap.newKeySet();
+    // active job writing to each output file
+    private final Map<File, DownloadJob> jobsByOutputFile = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong failedJobs = new AtomicLong();
+    private final AtomicLong cancelledJobs = new AtomicLong();
+    private final AtomicLong rescheduledJobs = new AtomicLong();
+
+    DownloadScheduler(Downloader downloader) {
+        this.downloader = downloader;
+
+        executor = new ThreadPoolExecutor(DEFAULT_WORKERS, DEFAULT_WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+    }
+
+    /**
+     * Queues the given job. If another job for the same output file is still active, the given job finishes
+     * together with that one instead.
+     *
+     * @param job
+     * @return the job, its future fails with a {@link RejectedExecutionException} if too many jobs are pending
+     */
+    public DownloadJob submit(DownloadJob job) {
+        DownloadJob active = jobsByOutputFile.putIfAbsent(getKey(job), job);
+
+        if (active != null) {
+            join(job, active);
+            return job;
+        }
+
+        if (pendingJobs.incrementAndGet() > maxPendingJobs) {
+            pendingJobs.decrementAndGet();
+            failedJobs.incrementAndGet();
+            jobsByOutputFile.remove(getKey(job), job);
+            job.fail(new RejectedExecutionException("Too many pending downloads, rejected " + job));
+            return job;
+        }
+
+        jobs.add(job);
+        execute(job);
+
+        return job;
+    }
+
+    /**
+     * Lets the job finish with the outcome of the active job for the same output file. Until then it is listed
+     * with the other jobs, so it can be cancelled on its own.
+     */
+    private void join(DownloadJob job, DownloadJob active) {
+        log.debug(job + " joins " + active);
+        register(job);
+
+        active.getFuture().whenComplete((file, throwable) -> {
+            unregister(job);
+
+            if (!job.start()) {
+                // cancelled while waiting
+                cancelledJobs.incrementAndGet();
+                return;
+            }
+
+            if (throwable instanceof CancellationException) {
+                job.cancel();
+                job.complete();
+                cancelledJobs.incrementAndGet();
+            } else if (throwable != null) {
+                job.fail(throwable);
+                failedJobs.incrementAndGet();
+            } else {
+                job.setChecksum(active.getChecksum());
+                job.complete();
+                completedJobs.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Lists a job which is not queued yet, e.g. because it waits for another job, so {@link #cancel(Predicate)}
+     * reaches it.
+     *
+     * @param job
+     */
+    void register(DownloadJob job) {
+        jobs.add(job);
+    }
+
+    void unregister(DownloadJob job) {
+        jobs.remove(job);
+    }
+
+    private static File getKey(DownloadJob job) {
+        return job.getOutputFile().toPath().toAbsolutePath().normalize().toFile();
+    }
+
+    private void finished(DownloadJob job) {
+        jobs.remove(job);
+        jobsByOutputFile.remove(getKey(job), job);
+    }
+
+    private void execute(DownloadJob job) {
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            // scheduler has been closed
+            pendingJobs.decrementAndGet();
+            finished(job);
+            failedJobs.incrementAndGet();
+            job.fail(e);
+        }
+    }
+
+    private void run(DownloadJob job) {
+        pendingJobs.decrementAndGet();
+
+        if (!job.start()) {
+            // cancelled while queued
+            finished(job);
+            cancelledJobs.incrementAndGet();
+            return;
+        }
+
+        runningJobs.incrementAndGet();
+        boolean rescheduled = false;
+
+        try {
+            downloader.download(job);
+            job.complete();
+
+            if (job.getState() == DownloadJob.State.CANCELLED) {
+                cancelledJobs.incrementAndGet();
+            } else {
+                completedJobs.incrementAndGet();
+            }
+        } catch (DownloadStalledException e) {
+            if (job.getReschedules() < maxReschedules && job.requeue()) {
+                log.warn(e.getMessage() + ", rescheduling " + job);
+                rescheduledJobs.incrementAndGet();
+                rescheduled = true;
+            } else {
+                log.error("Download failed: " + job, e);
+                failedJobs.incrementAndGet();
+                job.fail(e);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Download failed: " + job, e);
+            failedJobs.incrementAndGet();
+            job.fail(e);
+        } finally {
+            runningJobs.decrementAndGet();
+
+            if (!rescheduled) {
+                finished(job);
+            }
+        }
+
+        if (rescheduled) {
+            pendingJobs.incrementAndGet();
+            execute(job);
+        }
+    }
+
+    /**
+     * Cancels all queued or running jobs matching the given predicate.
+     *
+     * @param predicate
+     * @return amount of cancelled jobs
+     */
+    public int cancel(Predicate<DownloadJob> predicate) {
+        int count = 0;
+
+        for (DownloadJob job : jobs) {
+            if (predicate.test(job) && job.cancel()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return snapshot of all queued and running jobs
+     */
+    public List<DownloadJob> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+
+    public int getWorkers() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public synchronized void setWorkers(int workers) {
+        assert workers > 0;
+
+        if (workers > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(workers);
+            executor.setCorePoolSize(workers);
+        } else {
+            executor.setCorePoolSize(workers);
+            executor.setMaximumPoolSize(workers);
+        }
+    }
+
+    public int getMaxPendingJobs() {
+        return maxPendingJobs;
+    }
+
+    public void setMaxPendingJobs(int maxPendingJobs) {
+        this.maxPendingJobs = maxPendingJobs;
+    }
+
+    public int getMaxReschedules() {
+        return maxReschedules;
+    }
+
+    /**
+     * @param maxReschedules
+     *            how often a stalled job is put back into the queue before it fails, 0 disables rescheduling
+     */
+    public void setMaxReschedules(int maxReschedules) {
+        this.maxReschedules = maxReschedules;
+    }
+
+    /**
+     * @return amount of jobs waiting for a worker
+     */
+    public int getPendingJobs() {
+        return pendingJobs.get();
+    }
+
+    public int getRunningJobs() {
+        return runningJobs.get();
+    }
+
+    public long getCompletedJobs() {
+        return completedJobs.get();
+    }
+
+    public long getFailedJobs() {
+        return failedJobs.get();
+    }
+
+    public long getCancelledJobs() {
+        return cancelledJobs.get();
+    }
+
+    /**
+     * @return how often stalled jobs have been put back into the queue
+     */
+    public long getRescheduledJobs() {
+        return rescheduledJobs.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadScheduler: workers: " + getWorkers() + ", pending: " + getPendingJobs() + ", running: "
+                + getRunningJobs() + ", completed: " + getCompletedJobs() + ", failed: " + getFailedJobs()
+                + ", cancelled: " + getCancelledJobs() + ", rescheduled: " + getRescheduledJobs();
+    }
+
+}
@@ -0,0 +1,262 @@
+package de.kriegel.studip.client.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the throughput of all running transfers. A transfer which made no progress for
+ * {@link #getStallTimeoutMillis()} or whose throughput over the last {@link #getThroughputWindowMillis()} dropped
+ * below {@link #getMinBytesPerSecond()} is aborted, so the worker is freed and the download can be rescheduled.
+ * Pauses of a bandwidth limit count neither as stall nor against the throughput.
+ *
+ * @author Josef
+ */
+public class DownloadWatchdog {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadWatchdog.class);
+
+    public static final long DEFAULT_STALL_TIMEOUT_MILLIS = 30000;
+    public static final long DEFAULT_MIN_BYTES_PER_SECOND = 1024;
+    public static final long DEFAULT_THROUGHPUT_WINDOW_MILLIS = 30000;
+
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DownloadWatchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<Transfer> transfers = ConcurrentHashMap.newKeySet();
+
+    private volatile long stallTimeoutMillis = DEFAULT_STALL_TIMEOUT_MILLIS;
+    private volatile long minBytesPerSecond = DEFAULT_MIN_BYTES_PER_SECOND;
+    private volatile long throughputWindowMillis = DEFAULT_THROUGHPUT_WINDOW_MILLIS;
+
+    private final AtomicLong stalledTransfers = new AtomicLong();
+    private final AtomicLong slowTransfers = new AtomicLong();
+
+    DownloadWatchdog() {
+        scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching a transfer. The returned handle has to be closed when the transfer is done.
+     *
+     * @param name
+     *            used for logging
+     * @param abort
+     *            closed by the watchdog thread to abort the transfer, e.g. by cancelling its call
+     * @return
+     */
+    Transfer register(String name, Closeable abort) {
+        Transfer transfer = new Transfer(name, abort);
+        transfers.add(transfer);
+        return transfer;
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+
+        for (Transfer transfer : transfers) {
+            try {
+                transfer.check(now);
+            } catch (RuntimeException e) {
+                log.error("Checking " + transfer.name + " failed", e);
+            }
+        }
+    }
+
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * @return amount of transfers aborted because they made no progress at all
+     */
+    public long getStalledTransfers() {
+        return stalledTransfers.get();
+    }
+
+    /**
+     * @return amount of transfers aborted because they were slower than the minimum throughput
+     */
+    public long getSlowTransfers() {
+        return slowTransfers.get();
+    }
+
+    public int getActiveTransfers() {
+        return transfers.size();
+    }
+
+    /**
+     * @return sum of the throughput of all active transfers since their last check window started
+     */
+    public long getBytesPerSecond() {
+        long now = System.currentTimeMillis();
+        long bytesPerSecond = 0;
+
+        for (Transfer transfer : transfers) {
+            bytesPerSecond += transfer.getBytesPerSecond(now);
+        }
+
+        return bytesPerSecond;
+    }
+
+    public long getStallTimeoutMillis() {
+        return stallTimeoutMillis;
+    }
+
+    public void setStallTimeoutMillis(long stallTimeoutMillis) {
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    public long getMinBytesPerSecond() {
+        return minBytesPerSecond;
+    }
+
+    /**
+     * @param minBytesPerSecond
+     *            0 disables the throughput check, only transfers without any progress are aborted then
+     */
+    public void setMinBytesPerSecond(long minBytesPerSecond) {
+        this.minBytesPerSecond = minBytesPerSecond;
+    }
+
+    public long getThroughputWindowMillis() {
+        return throughputWindowMillis;
+    }
+
+    public void setThroughputWindowMillis(long throughputWindowMillis) {
+        this.throughputWindowMillis = throughputWindowMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadWatchdog: activeTransfers: " + getActiveTransfers() + ", bytesPerSecond: "
+                + getBytesPerSecond() + ", stalledTransfers: " + getStalledTransfers() + ", slowTransfers: "
+                + getSlowTransfers();
+    }
+
+    /**
+     * Handle of a watched transfer. The transferring thread reports its progress, the watchdog thread checks it.
+     */
+    class Transfer implements Closeable {
+
+        private final String name;
+        private final Closeable abort;
+
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long lastProgress;
+
+        // start of the current throughput window, only moved by the watchdog thread
+        private volatile long windowStart;
+        private volatile long windowStartBytes = 0;
+
+        // transfers are not checked during a pause and its time is excluded from the throughput
+        private final AtomicLong pausedMillis = new AtomicLong();
+        private volatile long windowStartPausedMillis = 0;
+        private volatile long pausedUntil = 0;
+
+        private volatile String abortReason = null;
+
+        private Transfer(String name, Closeable abort) {
+            this.name = name;
+            this.abort = abort;
+
+            lastProgress = windowStart = System.currentTimeMillis();
+        }
+
+        void progress(long transferredBytes) {
+            bytes.addAndGet(transferredBytes);
+            lastProgress = System.currentTimeMillis();
+        }
+
+        /**
+         * Tells that the transfer does not read on purpose for the given time, e.g. because of a bandwidth limit.
+         *
+         * @param millis
+         */
+        void pause(long millis) {
+            long now = System.currentTimeMillis();
+
+            pausedMillis.addAndGet(millis);
+            pausedUntil = now + millis;
+            lastProgress = now + millis;
+        }
+
+        /**
+         * @return the reason, if the transfer has been aborted by the watchdog, otherwise null
+         */
+        String getAbortReason() {
+            return abortReason;
+        }
+
+        /**
+         * @return time since the current throughput window started without the pauses
+         */
+        private long getWindowMillis(long now) {
+            return now - windowStart - (pausedMillis.get() - windowStartPausedMillis);
+        }
+
+        private long getBytesPerSecond(long now) {
+            long elapsed = getWindowMillis(now);
+
+            return elapsed <= 0 ? 0 : (bytes.get() - windowStartBytes) * 1000 / elapsed;
+        }
+
+        private void check(long now) {
+            if (abortReason != null || now < pausedUntil) {
+                return;
+            }
+
+            if (now - lastProgress >= stallTimeoutMillis) {
+                stalledTransfers.incrementAndGet();
+                abort("no progress for " + (now - lastProgress) + " ms");
+                return;
+            }
+
+            if (getWindowMillis(now) >= throughputWindowMillis) {
+                long bytesPerSecond = getBytesPerSecond(now);
+
+                if (bytesPerSecond < minBytesPerSecond) {
+                    slowTransfers.incrementAndGet();
+                    abort(bytesPerSecond + " B/s is below the minimum of " + minBytesPerSecond + " B/s");
+                    return;
+                }
+
+                windowStart = now;
+                windowStartBytes = bytes.get();
+                windowStartPausedMillis = pausedMillis.get();
+            }
+        }
+
+        private void abort(String reason) {
+            abortReason = reason;
+            log.warn("Aborting transfer of " + name + ": " + reason);
+
+            try {
+                abort.close();
+            } catch (IOException | RuntimeException e) {
+                log.debug("Aborting " + name + " failed", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            transfers.remove(this);
+        }
+
+    }
+
+}
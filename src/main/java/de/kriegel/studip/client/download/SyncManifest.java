@@ -0,0 +1,270 @@
+package de.kriegel.studip.client.download;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.kriegel.studip.client.content.model.data.FileRef;
+import de.kriegel.studip.client.content.model.data.Id;
+
+/**
+ * Record of all files synchronized into a download directory, keyed by {@link FileRef#getId()}. A file is up to
+ * date if its size and chdate match the recorded ones, which is a lookup in memory instead of a stat of the local
+ * file. The manifest is stored in a compact binary file inside the download directory, loaded completely on start
+ * and replaced atomically on {@link #save()}.
+ *
+ * @author Josef
+ */
+public class SyncManifest {
+
+    private static final Logger log = LoggerFactory.getLogger(SyncManifest.class);
+
+    public static final String FILENAME = ".studip-sync-manifest";
+
+    private static final int MAGIC = 0x53594e43;
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    private final Map<Id, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty = false;
+
+    private SyncManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the manifest of the given download directory. A missing or unreadable manifest results in an empty
+     * one, so all files are checked again.
+     *
+     * @param downloadDirectory
+     * @return
+     */
+    public static SyncManifest load(File downloadDirectory) {
+        SyncManifest syncManifest = new SyncManifest(new File(downloadDirectory, FILENAME));
+
+        if (!syncManifest.file.isFile()) {
+            return syncManifest;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(syncManifest.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring sync manifest of unknown format: " + syncManifest.file.getAbsolutePath());
+                return syncManifest;
+            }
+
+            int size = in.readInt();
+
+            for (int i = 0; i < size; i++) {
+                Entry entry = Entry.read(in);
+                syncManifest.entries.put(entry.getFileRefId(), entry);
+            }
+
+            log.debug("Loaded sync manifest with " + size + " entries from " + syncManifest.file.getAbsolutePath());
+        } catch (IOException e) {
+            log.warn("Could not read sync manifest " + syncManifest.file.getAbsolutePath(), e);
+            syncManifest.entries.clear();
+        }
+
+        return syncManifest;
+    }
+
+    /**
+     * Writes the manifest into a temporary file which replaces the previous manifest, so a crash never leaves a
+     * truncated manifest behind. Does nothing if nothing changed since the last save.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        File tmpFile = new File(file.getParentFile(), FILENAME + ".tmp");
+        List<Entry> snapshot = new ArrayList<>(entries.values());
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+
+            for (Entry entry : snapshot) {
+                entry.write(out);
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public Entry get(Id fileRefId) {
+        return entries.get(fileRefId);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.getFileRefId(), entry);
+        dirty = true;
+    }
+
+    public Entry remove(Id fileRefId) {
+        Entry entry = entries.remove(fileRefId);
+
+        if (entry != null) {
+            dirty = true;
+        }
+
+        return entry;
+    }
+
+    /**
+     * @param courseId
+     * @param existingFileRefIds
+     *            ids of all file refs currently present in the course
+     * @return entries of the course whose file ref is not present anymore
+     */
+    public List<Entry> getDeletedEntries(Id courseId, Set<Id> existingFileRefIds) {
+        List<Entry> deletedEntries = new ArrayList<>();
+
+        for (Entry entry : entries.values()) {
+            if (entry.getCourseId().equals(courseId) && !existingFileRefIds.contains(entry.getFileRefId())) {
+                deletedEntries.add(entry);
+            }
+        }
+
+        return deletedEntries;
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public static class Entry {
+
+        private final Id fileRefId;
+        private final Id fileId;
+        private final Id courseId;
+        private final long size;
+        private final long chdate;
+        // relative to the download directory, separated by '/'
+        private final String path;
+        private final byte[] checksum;
+
+        public Entry(Id fileRefId, Id fileId, Id courseId, long size, long chdate, String path, byte[] checksum) {
+            this.fileRefId = fileRefId;
+            this.fileId = fileId;
+            this.courseId = courseId;
+            this.size = size;
+            this.chdate = chdate;
+            this.path = path;
+            this.checksum = checksum == null ? new byte[0] : checksum;
+        }
+
+        /**
+         * @param fileRef
+         * @param path
+         * @return true, if the recorded file is the current version of the file ref at the given path
+         */
+        public boolean isUpToDate(FileRef fileRef, String path) {
+            return size == fileRef.getSize() && chdate == fileRef.getChdate() && this.path.equals(path);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(fileRefId.asHex());
+            out.writeUTF(fileId == null ? "" : fileId.asHex());
+            out.writeUTF(courseId.asHex());
+            out.writeLong(size);
+            out.writeLong(chdate);
+            out.writeUTF(path);
+            out.writeShort(checksum.length);
+            out.write(checksum);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            Id fileRefId = new Id(in.readUTF());
+            String fileId = in.readUTF();
+            Id courseId = new Id(in.readUTF());
+            long size = in.readLong();
+            long chdate = in.readLong();
+            String path = in.readUTF();
+            byte[] checksum = new byte[in.readUnsignedShort()];
+            in.readFully(checksum);
+
+            return new Entry(fileRefId, fileId.isEmpty() ? null : new Id(fileId), courseId, size, chdate, path,
+                    checksum);
+        }
+
+        public Id getFileRefId() {
+            return fileRefId;
+        }
+
+        public Id getFileId() {
+            return fileId;
+        }
+
+        public Id getCourseId() {
+            return courseId;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getChdate() {
+            return chdate;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return checksum of the local file or an empty array, if unknown
+         */
+        public byte[] getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public String toString() {
+            return "SyncManifest.Entry: " + path + " (" + fileRefId + ", " + size + " bytes, chdate " + chdate + ")";
+        }
+
+    }
+
+}
@@ -8,14 +8,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.json.simple.parser.ParseException;
 
 import de.kriegel.studip.client.content.model.data.Course;
 import de.kriegel.studip.client.content.model.file.FileRefTree;
+import de.kriegel.studip.client.download.DownloadManager.CourseDownload;
 import de.kriegel.studip.client.exception.NotAuthenticatedException;
 import de.kriegel.studip.client.service.CourseService;
 import de.kriegel.studip.client.service.StudIPClient;
@@ -39,8 +38,6 @@ public class SynchronizeTimer extends Thread {
 	private DownloadManager downloadManager;
 	private Map<Course, Course> courseTutorialMap;
 
-	private ExecutorService es;
-
 	private AtomicBoolean cancelled = new AtomicBoolean(false);
 
 	public SynchronizeTimer(StudIPClient studipClient, long sleepTimeMillis) {
@@ -69,15 +66,8 @@ public class SynchronizeTimer extends Thread {
 
 	private void deinit() {
 
-		if (es != null) {
-			es.shutdown();
-			while (es.isShutdown()) {
-				try {
-					Thread.sleep(20);
-				} catch (InterruptedException e1) {
-					e1.printStackTrace();
-				}
-			}
+		if (cancelled.get()) {
+			downloadManager.cancelAllDownloads();
 		}
 
 	}
@@ -95,8 +85,6 @@ public class SynchronizeTimer extends Thread {
 			return;
 		}
 
-		es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
 		// Run
 		while (true) {
 
@@ -136,47 +124,32 @@ public class SynchronizeTimer extends Thread {
 
 			log.info("Start Synchronization");
 
+			downloadManager.clearLocalFileIndex();
+
 			try {
 				for (Entry<Course, Course> e : courseTutorialMap.entrySet()) {
 
 					Course lecture = e.getKey();
 					Course tutorial = e.getValue();
 
-					downloadTasks.add(CompletableFuture.runAsync(() -> {
-						FileRefTree fileRefTree;
+					downloadTasks.add(synchronizeCourse(lecture));
 
-						try {
-							fileRefTree = courseService.getFileRefTree(lecture);
-							downloadManager.downloadFileRefTree(lecture, fileRefTree, cancelled);
-
-							if (tutorial != null) {
-								fileRefTree = courseService.getFileRefTree(tutorial);
-								downloadManager.downloadFileRefTree(tutorial, fileRefTree, cancelled);
-							}
-
-						} catch (Exception e1) {
-							log.error("Inner exception");
-							log.error(e1.getMessage(), e1);
-						}
-					}, es));
+					if (tutorial != null) {
+						downloadTasks.add(synchronizeCourse(tutorial));
+					}
 
 				}
 
 				log.info("Start Downloading");
 				log.debug("Created " + downloadTasks.size() + " Download tasks.");
 
-				for (int i = 0; i < downloadTasks.size(); i++) {
-					if (cancelled.get()) {
-						downloadTasks.get(i).cancel(true);
-						continue;
-					}
-
-					try {
-						downloadTasks.get(i).get();
-					} catch (InterruptedException | ExecutionException e1) {
-						cancelled.set(true);
-						log.info("INITIAL interrupt at task " + i);
-					}
+				try {
+					CompletableFuture.allOf(downloadTasks.toArray(new CompletableFuture<?>[downloadTasks.size()]))
+							.get();
+				} catch (InterruptedException | ExecutionException e1) {
+					cancelled.set(true);
+					downloadManager.cancelAllDownloads();
+					log.info("INITIAL interrupt while downloading");
 				}
 
 				log.debug("Sleep Time! for " + (sleepTimeMillis / 60000.0) + " minutes");
@@ -200,6 +173,39 @@ public class SynchronizeTimer extends Thread {
 		deinit();
 	}
 
+	/**
+	 * Crawls the given course and queues its files for download while the crawl is still running.
+	 *
+	 * @param course
+	 * @return future which completes after all files of the course have been downloaded, never exceptionally
+	 */
+	private CompletableFuture<Void> synchronizeCourse(Course course) {
+		CourseDownload courseDownload = downloadManager.startCourseDownload(course, cancelled);
+
+		CompletableFuture<FileRefTree> fileRefTree;
+		try {
+			fileRefTree = courseService.getFileRefTreeAsync(course, courseDownload);
+		} catch (NotAuthenticatedException e) {
+			log.error(e.getMessage(), e);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		// the files queued before a failed crawl are still awaited, so the next cycle never queues them twice
+		return fileRefTree.handle((tree, throwable) -> {
+			if (throwable == null) {
+				return courseDownload.finish(tree);
+			}
+
+			log.error("Synchronization of " + course.getTitle() + " failed");
+			log.error(throwable.getMessage(), throwable);
+			return courseDownload.finishIncomplete();
+		}).thenCompose(finished -> finished).exceptionally(e -> {
+			log.error("Synchronization of " + course.getTitle() + " failed");
+			log.error(e.getMessage(), e);
+			return null;
+		});
+	}
+
 	public void addSynchronizeTimerTriggeredListener(SynchronizeTimerTriggeredListener listener) {
 		this.synchronizeTimerTriggeredListeners.add(listener);
 	}
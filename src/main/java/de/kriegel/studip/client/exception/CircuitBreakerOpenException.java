@@ -0,0 +1,35 @@
+package de.kriegel.studip.client.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to an endpoint which recently failed too often.
+ *
+ * @author Josef
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+	private static final long serialVersionUID = 2751208863930914017L;
+
+	private final String endpoint;
+	private final long retryInMillis;
+
+	public CircuitBreakerOpenException(String endpoint, long retryInMillis) {
+		super("Circuit breaker of " + endpoint + " is open, retry in " + retryInMillis + " ms");
+
+		this.endpoint = endpoint;
+		this.retryInMillis = retryInMillis;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return time until the breaker lets probe requests through again
+	 */
+	public long getRetryInMillis() {
+		return retryInMillis;
+	}
+
+}
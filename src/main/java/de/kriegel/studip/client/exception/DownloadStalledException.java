@@ -0,0 +1,22 @@
+package de.kriegel.studip.client.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a download has been aborted by the watchdog because it made no progress or was too slow.
+ *
+ * @author Josef
+ */
+public class DownloadStalledException extends IOException {
+
+	private static final long serialVersionUID = -6318809140127756335L;
+
+	public DownloadStalledException(String message) {
+		super(message);
+	}
+
+	public DownloadStalledException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
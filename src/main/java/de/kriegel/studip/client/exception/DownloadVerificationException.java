@@ -0,0 +1,32 @@
+package de.kriegel.studip.client.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a downloaded file does not match the metadata of its FileRef, e.g. because the response was truncated.
+ *
+ * @author Josef
+ */
+public class DownloadVerificationException extends IOException {
+
+	private static final long serialVersionUID = 4170336521783906142L;
+
+	private final long expectedSize;
+	private final long actualSize;
+
+	public DownloadVerificationException(String name, long expectedSize, long actualSize) {
+		super("Downloaded " + actualSize + " of " + expectedSize + " bytes of " + name);
+
+		this.expectedSize = expectedSize;
+		this.actualSize = actualSize;
+	}
+
+	public long getExpectedSize() {
+		return expectedSize;
+	}
+
+	public long getActualSize() {
+		return actualSize;
+	}
+
+}
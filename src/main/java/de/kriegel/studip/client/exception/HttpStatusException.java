@@ -0,0 +1,27 @@
+package de.kriegel.studip.client.exception;
+
+import java.io.IOException;
+
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = -2635208370114964583L;
+
+	private final String url;
+	private final int code;
+
+	public HttpStatusException(String url, int code, String message) {
+		super("HTTP " + code + " " + message + " for " + url);
+
+		this.url = url;
+		this.code = code;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+}
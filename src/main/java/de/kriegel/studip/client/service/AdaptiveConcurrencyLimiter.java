@@ -0,0 +1,305 @@
+package de.kriegel.studip.client.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Limits the amount of requests in flight to the server with an AIMD window. For every {@code limit} responses which
+ * arrived in time while the window was in use, the limit is raised by one. It is reduced by a quarter as soon as the
+ * server answers with 429 or 5xx, a request fails or the smoothed latency exceeds the observed baseline by
+ * {@link #LATENCY_TOLERANCE}. At most one reduction happens per round trip, so a burst of slow responses caused by
+ * the same overload shrinks the window only once. Latencies of {@link RequestPriority#BULK} requests are ignored.
+ * <p>
+ * Waiting requests are started strictly in the order of their {@link RequestPriority}, FIFO within a class.
+ * {@link RequestPriority#BULK} requests may only use a share of the window, so the rest is always available for
+ * metadata even while the download queue is saturated.
+ *
+ * @author Josef
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final double BACKOFF_RATIO = 0.75;
+
+	// weight of a new sample in the smoothed latency
+	private static final double SMOOTHING = 0.1;
+	// lets the baseline follow a permanently slower server instead of shrinking the window forever
+	private static final double BASELINE_DRIFT = 0.01;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double bulkShare;
+
+	private int limit;
+
+	private final Map<RequestPriority, Deque<CompletableFuture<Void>>> waiters = new EnumMap<>(
+			RequestPriority.class);
+	private final int[] inFlight = new int[RequestPriority.values().length];
+	private int totalInFlight = 0;
+	private int increaseCredits = 0;
+
+	private double baselineLatencyNanos = 0;
+	private double smoothedLatencyNanos = 0;
+	private long lastDecreaseNanos = 0;
+
+	private long increases = 0;
+	private long decreases = 0;
+
+	/**
+	 * @param initialLimit
+	 * @param minLimit
+	 * @param maxLimit
+	 * @param bulkShare
+	 *            share of the limit bulk requests may use, at least one request is always allowed
+	 */
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double bulkShare) {
+		assert minLimit > 0;
+		assert minLimit <= initialLimit && initialLimit <= maxLimit;
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.bulkShare = bulkShare;
+		this.limit = initialLimit;
+
+		for (RequestPriority priority : RequestPriority.values()) {
+			waiters.put(priority, new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * @param priority
+	 * @return future which completes as soon as the request may be sent
+	 */
+	CompletableFuture<Void> acquire(RequestPriority priority) {
+		synchronized (this) {
+			if (waiters.get(priority).isEmpty() && canStart(priority)) {
+				start(priority);
+				return CompletableFuture.completedFuture(null);
+			}
+
+			CompletableFuture<Void> waiter = new CompletableFuture<>();
+			waiters.get(priority).add(waiter);
+			return waiter;
+		}
+	}
+
+	/**
+	 * Same as {@link #acquire(RequestPriority)}, but the request waits ahead of the others of its class, e.g. because
+	 * it has only lent its permit for a moment.
+	 *
+	 * @param priority
+	 * @return future which completes as soon as the request may go on
+	 */
+	synchronized CompletableFuture<Void> reacquire(RequestPriority priority) {
+		if (canStart(priority)) {
+			start(priority);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		CompletableFuture<Void> waiter = new CompletableFuture<>();
+		waiters.get(priority).addFirst(waiter);
+		return waiter;
+	}
+
+	/**
+	 * Gives up waiting for a permit, e.g. because the request waited too long.
+	 *
+	 * @param priority
+	 * @param waiter
+	 *            as returned by {@link #acquire(RequestPriority)}
+	 * @return false, if the permit has already been granted, it has to be released as usual then
+	 */
+	synchronized boolean abandon(RequestPriority priority, CompletableFuture<Void> waiter) {
+		return waiters.get(priority).remove(waiter);
+	}
+
+	/**
+	 * Returns the permit of a finished request and adjusts the limit.
+	 *
+	 * @param priority
+	 * @param latencyNanos
+	 *            time until the response headers arrived
+	 * @param overloaded
+	 *            true, if the server rejected the request or it failed
+	 */
+	void release(RequestPriority priority, long latencyNanos, boolean overloaded) {
+		List<CompletableFuture<Void>> granted;
+
+		synchronized (this) {
+			onSample(priority, latencyNanos, overloaded);
+			granted = finish(priority);
+		}
+
+		// complete outside of the lock, the waiters send their requests on this thread
+		granted.forEach(waiter -> waiter.complete(null));
+	}
+
+	/**
+	 * Returns the permit of a request which did not tell anything about the server, e.g. because it was cancelled.
+	 *
+	 * @param priority
+	 */
+	void release(RequestPriority priority) {
+		List<CompletableFuture<Void>> granted;
+
+		synchronized (this) {
+			granted = finish(priority);
+		}
+
+		granted.forEach(waiter -> waiter.complete(null));
+	}
+
+	private boolean canStart(RequestPriority priority) {
+		return totalInFlight < limit && inFlight[priority.ordinal()] < getBudget(priority);
+	}
+
+	private int getBudget(RequestPriority priority) {
+		return priority == RequestPriority.BULK ? Math.max(1, (int) (limit * bulkShare)) : limit;
+	}
+
+	private void start(RequestPriority priority) {
+		inFlight[priority.ordinal()]++;
+		totalInFlight++;
+	}
+
+	/**
+	 * @return waiters which may start now, highest priority first
+	 */
+	private List<CompletableFuture<Void>> finish(RequestPriority priority) {
+		inFlight[priority.ordinal()]--;
+		totalInFlight--;
+
+		List<CompletableFuture<Void>> granted = new ArrayList<>();
+
+		for (RequestPriority waiting : RequestPriority.values()) {
+			Queue<CompletableFuture<Void>> queue = waiters.get(waiting);
+
+			while (!queue.isEmpty() && canStart(waiting)) {
+				start(waiting);
+				granted.add(queue.poll());
+			}
+
+			if (!queue.isEmpty() && totalInFlight >= limit) {
+				// lower classes must not overtake
+				break;
+			}
+		}
+
+		return granted;
+	}
+
+	private void onSample(RequestPriority priority, long latencyNanos, boolean overloaded) {
+		long now = System.nanoTime();
+
+		// the latency of a download depends on the size of the file, it only tells about overload by failing
+		boolean latencySample = priority != RequestPriority.BULK;
+
+		if (!overloaded && latencySample) {
+			if (baselineLatencyNanos == 0 || latencyNanos < baselineLatencyNanos) {
+				baselineLatencyNanos = latencyNanos;
+			} else {
+				baselineLatencyNanos += (latencyNanos - baselineLatencyNanos) * BASELINE_DRIFT;
+			}
+
+			smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latencyNanos
+					: smoothedLatencyNanos + (latencyNanos - smoothedLatencyNanos) * SMOOTHING;
+		}
+
+		// the current sample has to be slow as well, so the smoothed latency of a cold start does not count
+		double latencyLimit = baselineLatencyNanos * LATENCY_TOLERANCE;
+
+		if (overloaded || (latencySample && latencyNanos > latencyLimit && smoothedLatencyNanos > latencyLimit)) {
+			if (now - lastDecreaseNanos > smoothedLatencyNanos) {
+				lastDecreaseNanos = now;
+				increaseCredits = 0;
+				setLimit(Math.max(minLimit, (int) (limit * BACKOFF_RATIO)));
+				decreases++;
+			}
+			return;
+		}
+
+		// only grow while the window is actually used, otherwise an idle client would open it up to the maximum
+		if (totalInFlight * 2 >= limit && ++increaseCredits >= limit) {
+			increaseCredits = 0;
+
+			if (limit < maxLimit) {
+				setLimit(limit + 1);
+				increases++;
+			}
+		}
+	}
+
+	private void setLimit(int limit) {
+		// a raised limit is used as soon as the next request finishes
+		this.limit = limit;
+	}
+
+	/**
+	 * @return current amount of requests allowed in flight
+	 */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public synchronized int getInFlight() {
+		return totalInFlight;
+	}
+
+	public synchronized int getInFlight(RequestPriority priority) {
+		return inFlight[priority.ordinal()];
+	}
+
+	/**
+	 * @return amount of requests waiting for a permit
+	 */
+	public synchronized int getWaiting() {
+		int waiting = 0;
+
+		for (Queue<CompletableFuture<Void>> queue : waiters.values()) {
+			waiting += queue.size();
+		}
+
+		return waiting;
+	}
+
+	public synchronized int getWaiting(RequestPriority priority) {
+		return waiters.get(priority).size();
+	}
+
+	/**
+	 * @return smoothed time until the response headers arrived in milliseconds
+	 */
+	public synchronized double getLatencyMillis() {
+		return smoothedLatencyNanos / 1000000;
+	}
+
+	public synchronized long getIncreases() {
+		return increases;
+	}
+
+	public synchronized long getDecreases() {
+		return decreases;
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveConcurrencyLimiter: limit: " + getLimit() + ", inFlight: " + getInFlight() + ", waiting: "
+				+ getWaiting() + ", latencyMillis: " + String.format("%.1f", getLatencyMillis()) + ", increases: "
+				+ getIncreases() + ", decreases: " + getDecreases();
+	}
+
+}
@@ -0,0 +1,117 @@
+package de.kriegel.studip.client.service;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Semaphore which hands out permits as futures instead of blocking the acquiring thread. Waiters are served in
+ * FIFO order as soon as a permit is released.
+ *
+ * @author Josef
+ */
+public class AsyncSemaphore {
+
+	private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+	private int limit;
+	private int inUse = 0;
+
+	public AsyncSemaphore(int limit) {
+		assert limit > 0;
+
+		this.limit = limit;
+	}
+
+	/**
+	 * @return future which completes as soon as a permit has been granted to the caller
+	 */
+	public CompletableFuture<Void> acquire() {
+		synchronized (this) {
+			if (inUse < limit) {
+				inUse++;
+				return CompletableFuture.completedFuture(null);
+			}
+
+			CompletableFuture<Void> waiter = new CompletableFuture<>();
+			waiters.add(waiter);
+			return waiter;
+		}
+	}
+
+	/**
+	 * Returns a permit. If somebody is waiting, the permit is directly handed over to the next waiter.
+	 */
+	public void release() {
+		CompletableFuture<Void> next;
+
+		synchronized (this) {
+			if (inUse > limit || (next = waiters.poll()) == null) {
+				inUse--;
+				return;
+			}
+		}
+
+		// complete outside of the lock, the waiter may run its continuation on this thread
+		next.complete(null);
+	}
+
+	/**
+	 * Starts the given task as soon as a permit is available and releases the permit when the task's future
+	 * completes.
+	 *
+	 * @param task
+	 * @return
+	 */
+	public <T> CompletableFuture<T> withPermit(Supplier<CompletableFuture<T>> task) {
+		return acquire().thenCompose(v -> {
+			CompletableFuture<T> future;
+
+			try {
+				future = task.get();
+			} catch (RuntimeException e) {
+				release();
+				throw e;
+			}
+
+			return future.whenComplete((result, throwable) -> release());
+		});
+	}
+
+	/**
+	 * Changes the amount of permits. When the limit is raised, waiting tasks are started right away; when it is
+	 * lowered, permits in use are not revoked but are not handed out again until usage dropped below the new limit.
+	 *
+	 * @param limit
+	 */
+	public void setLimit(int limit) {
+		assert limit > 0;
+
+		Queue<CompletableFuture<Void>> granted = new ArrayDeque<>();
+
+		synchronized (this) {
+			this.limit = limit;
+
+			while (inUse < limit && !waiters.isEmpty()) {
+				inUse++;
+				granted.add(waiters.poll());
+			}
+		}
+
+		granted.forEach(waiter -> waiter.complete(null));
+	}
+
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	public synchronized int getInUse() {
+		return inUse;
+	}
+
+	public synchronized int getWaiting() {
+		return waiters.size();
+	}
+
+}
@@ -39,7 +39,8 @@ public class AuthService {
 
         Response response;
         try {
-            response = httpClient.get(SubPaths.API.toString() + Endpoints.USER.toString()).get();
+            response = httpClient.get(SubPaths.API.toString() + Endpoints.USER.toString(), RequestPriority.INTERACTIVE)
+                    .get();
 
             if (response.isSuccessful()) {
                 isAuthenticated = true;
@@ -1,26 +1,44 @@
 package de.kriegel.studip.client.service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import okhttp3.Authenticator;
-import okhttp3.Cookie;
-import okhttp3.CookieJar;
+import de.kriegel.studip.client.config.Endpoints;
+import de.kriegel.studip.client.config.HttpClientConfig;
+import de.kriegel.studip.client.config.SubPaths;
+import de.kriegel.studip.client.exception.CircuitBreakerOpenException;
+import de.kriegel.studip.client.exception.HttpStatusException;
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
 import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
 import okhttp3.FormBody;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
@@ -29,7 +47,10 @@ import okhttp3.OkHttpClient.Builder;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import okhttp3.Route;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 
 /**
  * HttpClient used to communicate via HTTP Requests in a simple way
@@ -42,95 +63,268 @@ public class BasicHttpClient {
 
 	private URI baseUri;
 	private de.kriegel.studip.client.auth.Credentials credentials;
-	private ExecutorService executorService;
+	private final HttpClientConfig config;
+	private final HttpClientStatistics statistics = new HttpClientStatistics();
 
-	Builder clientBuilder;
+	/**
+	 * Single client shared by all requests, so pooled keep-alive connections and TLS sessions are reused
+	 */
+	private final OkHttpClient httpClient;
+
+	/**
+	 * Adapts the amount of requests in flight to how fast the server currently answers
+	 */
+	private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+	private final RetryPolicy retryPolicy;
+
+	/**
+	 * Session cookies of the server, optionally persisted across restarts
+	 */
+	private final PersistentCookieJar cookieJar;
+
+	/**
+	 * One circuit breaker per endpoint template, requests to other paths are not guarded
+	 */
+	private final Map<Endpoints, CircuitBreaker> circuitBreakers = new EnumMap<>(Endpoints.class);
+
+	/**
+	 * Request rate and bandwidth limits by host, created on the first request to the host
+	 */
+	private final Map<String, HostRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+	/**
+	 * Json requests currently in flight by subpath, joined by identical requests instead of sending them again
+	 */
+	private final Map<String, CompletableFuture<JSONObject>> jsonRequestsInFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Parsed json responses with their validators by url, revalidated with conditional requests
+	 */
+	private final JsonRevalidationCache jsonCache;
+
+	/**
+	 * If set, GET requests are answered from the response cache only
+	 */
+	private volatile boolean offline;
+
+	/**
+	 * Delays retries and throttled requests without blocking a dispatcher thread
+	 */
+	private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "BasicHttpClient-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param baseUri
+	 * @param credentials
+	 */
+	public BasicHttpClient(URI baseUri, de.kriegel.studip.client.auth.Credentials credentials) {
+		this(baseUri, credentials, new HttpClientConfig());
+	}
 
 	/**
 	 * @param baseUri
 	 * @param credentials
+	 * @param config
 	 */
 	public BasicHttpClient(URI baseUri, de.kriegel.studip.client.auth.Credentials credentials,
-			ExecutorService executorService) {
+			HttpClientConfig config) {
 		assert baseUri != null;
 		assert credentials != null;
-		assert executorService != null;
+		assert config != null;
 
 		this.baseUri = baseUri;
 		this.credentials = credentials;
-		this.executorService = executorService;
+		this.config = config;
+
+		int maxLimit = config.getMaxRequestsPerHost();
+		this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(
+				Math.min(config.getInitialConcurrencyLimit(), maxLimit),
+				Math.min(config.getMinConcurrencyLimit(), maxLimit), maxLimit, config.getBulkConcurrencyShare());
+		this.retryPolicy = new RetryPolicy(config);
+		this.jsonCache = new JsonRevalidationCache(config.getJsonCacheSize());
+		this.offline = config.isOffline();
+		this.cookieJar = new PersistentCookieJar(config.getCookieFile());
+
+		for (Endpoints endpoint : Endpoints.values()) {
+			circuitBreakers.put(endpoint, new CircuitBreaker(endpoint.name(), config));
+		}
 
-		configureHttpClientBuilder();
+		this.httpClient = configureHttpClientBuilder().build();
 	}
 
 	/**
+	 * Evicts all pooled connections and stops the dispatcher threads
+	 */
+	public void close() {
+		log.info("Closing BasicHttpClient, " + statistics + ", " + concurrencyLimiter + ", " + rateLimiters.values());
+		retryScheduler.shutdownNow();
+		httpClient.dispatcher().executorService().shutdown();
+		httpClient.connectionPool().evictAll();
+
+		if (httpClient.cache() != null) {
+			try {
+				httpClient.cache().close();
+			} catch (IOException e) {
+				log.warn("Could not close the response cache", e);
+			}
+		}
+	}
+
+	public HttpClientStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return true, if GET requests are answered from the response cache only
+	 */
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Switches the offline mode. While offline, GET requests never reach the server. They are answered from the
+	 * response cache or the json responses kept in memory, no matter how old these are, and fail if nothing is
+	 * cached. Without a cache directory only the json responses kept in memory are available.
 	 *
+	 * @param offline
 	 */
-	private void configureHttpClientBuilder() {
-		clientBuilder = new Builder();
-		clientBuilder.connectTimeout(2000, TimeUnit.MILLISECONDS);
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
 
-		clientBuilder.cookieJar(new CookieJar() {
+	/**
+	 * @return the circuit breakers of all endpoints, e.g. to read their state
+	 */
+	public Map<Endpoints, CircuitBreaker> getCircuitBreakers() {
+		return Collections.unmodifiableMap(circuitBreakers);
+	}
 
-			private List<Cookie> cookies;
+	/**
+	 * @return the rate limiters of all hosts requested so far, e.g. to read their throttle times
+	 */
+	public Map<String, HostRateLimiter> getRateLimiters() {
+		return Collections.unmodifiableMap(rateLimiters);
+	}
 
-			@Override
-			public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
-				this.cookies = cookies;
-			}
+	private HostRateLimiter getRateLimiter(String host) {
+		return rateLimiters.computeIfAbsent(host, h -> new HostRateLimiter(h, config.getRateLimit(h)));
+	}
 
-			@Override
-			public List<Cookie> loadForRequest(HttpUrl url) {
-				if (cookies != null)
-					return cookies;
-				return new ArrayList<Cookie>();
+	/**
+	 * @return the limiter of requests in flight, e.g. to read the current limit
+	 */
+	public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 *
+	 */
+	private Builder configureHttpClientBuilder() {
+		Builder clientBuilder = new Builder();
+		clientBuilder.connectTimeout(config.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+		clientBuilder.readTimeout(config.getReadTimeoutMillis(), TimeUnit.MILLISECONDS);
+
+		clientBuilder.connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAliveMillis(),
+				TimeUnit.MILLISECONDS));
+
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequests(config.getMaxRequests());
+		dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+		clientBuilder.dispatcher(dispatcher);
+
+		clientBuilder.eventListenerFactory(call -> new ConnectionTrackingEventListener());
+
+		if (config.getCacheDirectory() != null) {
+			clientBuilder.cache(new Cache(config.getCacheDirectory(), config.getCacheMaxSizeBytes()));
+
+			// the API forbids caching its responses, store metadata anyway but let it expire right away, so it is
+			// revalidated on every request and only served stale when offline or the server is unreachable
+			clientBuilder.addNetworkInterceptor(chain -> {
+				Response response = chain.proceed(chain.request());
 
+				if (!isMetadata(chain.request())) {
+					// keep file downloads out of the cache, they would evict all metadata
+					return response.newBuilder().header("Cache-Control", "no-store").build();
+				}
+
+				if (response.code() != 200) {
+					return response;
+				}
+
+				return response.newBuilder().removeHeader("Pragma").removeHeader("Expires")
+						.header("Cache-Control", "max-age=0").build();
+			});
+		}
+
+		// response bodies are read no faster than the bandwidth limit of their host
+		clientBuilder.addNetworkInterceptor(chain -> {
+			Response response = chain.proceed(chain.request());
+
+			if (getPriority(chain.request()) == RequestPriority.BULK) {
+				// downloads are throttled together with their permit, see enqueueWithPermit
+				return response;
 			}
 
+			HostRateLimiter rateLimiter = getRateLimiter(chain.request().url().host());
+
+			return response.newBuilder().body(rateLimiter.throttle(response.body())).build();
 		});
 
-		clientBuilder.authenticator(new Authenticator() {
-			@Override
-			public Request authenticate(Route route, Response response) throws IOException {
-				if (response.request().header("Authorization") != null) {
-					return null; // Give up, we've already attempted to authenticate.
-				}
+		clientBuilder.cookieJar(cookieJar);
+
+		// send the credentials right away instead of waiting for a 401 challenge, which would double the requests.
+		// Requests to other hosts, e.g. redirects, never get the credentials, so there is no authenticator.
+		String host = HttpUrl.get(baseUri).host();
+		String credential = Credentials.basic(credentials.getUsername(), credentials.getPassword());
 
-				log.debug("Authenticating for response: " + response);
-				log.debug("Challenges: " + response.challenges());
+		clientBuilder.addInterceptor(chain -> {
+			Request request = chain.request();
 
-				String credential = Credentials.basic(credentials.getUsername(), credentials.getPassword());
-				return response.request().newBuilder().header("Authorization", credential).build();
+			if (request.header("Authorization") == null && request.url().host().equals(host)) {
+				request = request.newBuilder().header("Authorization", credential).build();
 			}
+
+			return chain.proceed(request);
 		});
 
+		return clientBuilder;
 	}
 
 	/**
 	 * @return
 	 */
 	private OkHttpClient getHttpClient() {
-		assert clientBuilder != null;
+		assert httpClient != null;
 
-		return clientBuilder.build();
+		return httpClient;
 	}
 
-	public Future<String> getResponseBody(Response response) {
+	/**
+	 * Reads the body of an already received response. The body is read on the calling thread, which blocks on the
+	 * returned future anyway, so no additional thread hop is needed.
+	 *
+	 * @param response
+	 * @return
+	 */
+	public CompletableFuture<String> getResponseBody(Response response) {
 		assert response != null;
 
-		Future<String> futureResponseBody = null;
+		CompletableFuture<String> futureResponseBody = new CompletableFuture<>();
 
-		try {
-			futureResponseBody = executorService.submit(new Callable<String>() {
-				@Override
-				public String call() throws Exception {
-					return response.body().string();
-				}
-			});
-		} catch (RejectedExecutionException e) {
-			e.printStackTrace();
-		} catch (NullPointerException e) {
-			e.printStackTrace();
+		if (response.body() == null) {
+			futureResponseBody.completeExceptionally(new IOException("No response body for " + response.request().url()));
+			return futureResponseBody;
+		}
+
+		try (ResponseBody body = response.body()) {
+			futureResponseBody.complete(body.string());
+		} catch (IOException e) {
+			futureResponseBody.completeExceptionally(e);
 		}
 
 		return futureResponseBody;
@@ -139,55 +333,255 @@ public class BasicHttpClient {
 	/**
 	 * @param subpath
 	 * @return
-	 * @throws ClientProtocolException
 	 * @throws URISyntaxException
 	 * @throws IOException
 	 */
-	public Future<Response> get(String subpath) throws URISyntaxException, IOException {
+	public CompletableFuture<Response> get(String subpath) throws URISyntaxException, IOException {
 		return get(new URI(subpath));
 	}
 
 	/**
+	 * Same as {@link #get(String)}, but the request waits for a permit in the queue of the given priority.
+	 *
 	 * @param subpath
+	 * @param priority
 	 * @return
 	 * @throws URISyntaxException
-	 * @throws ClientProtocolException
 	 * @throws IOException
 	 */
-	public Future<Response> get(URI subpath) throws URISyntaxException, UnknownHostException, IOException {
-		assert subpath != null;
+	public CompletableFuture<Response> get(String subpath, RequestPriority priority)
+			throws URISyntaxException, IOException {
+		Request request = new Request.Builder().url(baseUri.toString() + new URI(subpath).toString())
+				.tag(RequestPriority.class, priority).build();
 
-		OkHttpClient httpClient = getHttpClient();
+		return enqueue(request);
+	}
+
+	/**
+	 * Sends an asynchronous GET request. Transient failures are retried, see {@link #enqueue(Request)}.
+	 *
+	 * @param subpath
+	 * @return
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 */
+	public CompletableFuture<Response> get(URI subpath) throws URISyntaxException, UnknownHostException, IOException {
+		assert subpath != null;
 
 		Request request = new Request.Builder().url(baseUri.toString() + subpath.toString()).build();
 
-		Future<Response> futureGetResponse = null;
+		return enqueue(request);
+	}
 
-		try {
-			futureGetResponse = executorService.submit(new Callable<Response>() {
-				@Override
-				public Response call() throws Exception {
-					return httpClient.newCall(request).execute();
+	/**
+	 * Sends an asynchronous GET request with additional headers, e.g. a Range header.
+	 *
+	 * @param subpath
+	 * @param headers
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	public CompletableFuture<Response> get(String subpath, Map<String, String> headers) throws URISyntaxException {
+		return enqueue(newCall(subpath, headers));
+	}
+
+	/**
+	 * Prepares a GET request with additional headers without sending it. Unlike the future of
+	 * {@link #get(String, Map)}, the call can still be cancelled from any thread while its response body is read.
+	 * Such calls are sent once and not retried, the caller has to handle failures itself.
+	 *
+	 * @param subpath
+	 * @param headers
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	public Call newCall(String subpath, Map<String, String> headers) throws URISyntaxException {
+		return newCall(subpath, headers, RequestPriority.METADATA);
+	}
+
+	/**
+	 * Same as {@link #newCall(String, Map)} with the given priority, e.g. {@link RequestPriority#BULK} for
+	 * downloads.
+	 *
+	 * @param subpath
+	 * @param headers
+	 * @param priority
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	public Call newCall(String subpath, Map<String, String> headers, RequestPriority priority)
+			throws URISyntaxException {
+		Request.Builder requestBuilder = new Request.Builder().url(baseUri.toString() + new URI(subpath).toString())
+				.tag(RequestPriority.class, priority);
+
+		for (Entry<String, String> header : headers.entrySet()) {
+			requestBuilder.header(header.getKey(), header.getValue());
+		}
+
+		return getHttpClient().newCall(requestBuilder.build());
+	}
+
+	/**
+	 * Sends an asynchronous GET request and reads the response body on the dispatcher thread which received the
+	 * response. Transient failures are retried. The future completes exceptionally with a
+	 * {@link HttpStatusException} if the response was not successful.
+	 *
+	 * @param subpath
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	public CompletableFuture<String> getString(String subpath) throws URISyntaxException {
+		assert subpath != null;
+
+		Request request = new Request.Builder().url(baseUri.toString() + new URI(subpath).toString()).build();
+
+		CompletableFuture<String> futureResponseBody = new CompletableFuture<>();
+
+		send(request, new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				futureResponseBody.completeExceptionally(e);
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (ResponseBody body = response.body()) {
+					if (response.isSuccessful()) {
+						futureResponseBody.complete(body.string());
+					} else {
+						futureResponseBody.completeExceptionally(
+								new HttpStatusException(request.url().toString(), response.code(), response.message()));
+					}
+				} catch (IOException e) {
+					futureResponseBody.completeExceptionally(e);
 				}
-			});
-		} catch (RejectedExecutionException e) {
-			e.printStackTrace();
-		} catch (NullPointerException e) {
-			e.printStackTrace();
+			}
+		});
+
+		return futureResponseBody;
+	}
+
+	/**
+	 * Same as {@link #getString(String)}, but parses the response body as json object on the dispatcher thread.
+	 * Concurrent requests of the same subpath share a single network call and its parsed result, and unchanged
+	 * responses are served from the revalidation cache, so callers must not modify the returned object.
+	 *
+	 * @param subpath
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	public CompletableFuture<JSONObject> getJson(String subpath) throws URISyntaxException {
+		return getJson(subpath, RequestPriority.METADATA);
+	}
+
+	/**
+	 * Same as {@link #getJson(String)} with the given priority. A request joining one already in flight keeps the
+	 * priority of the first one.
+	 *
+	 * @param subpath
+	 * @param priority
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	public CompletableFuture<JSONObject> getJson(String subpath, RequestPriority priority)
+			throws URISyntaxException {
+		CompletableFuture<JSONObject> flight = new CompletableFuture<>();
+		CompletableFuture<JSONObject> existing = jsonRequestsInFlight.putIfAbsent(subpath, flight);
+
+		if (existing != null) {
+			statistics.requestCoalesced();
+			// every caller gets its own future, so cancelling it does not affect the others
+			return existing.thenApply(json -> json);
+		}
+
+		CompletableFuture<JSONObject> request;
+
+		try {
+			request = fetchJson(subpath, priority);
+		} catch (URISyntaxException | RuntimeException e) {
+			jsonRequestsInFlight.remove(subpath, flight);
+			flight.completeExceptionally(e);
+			throw e;
 		}
 
-		return futureGetResponse;
+		request.whenComplete((json, throwable) -> {
+			// removed before completing, so requests arriving afterwards fetch a fresh copy
+			jsonRequestsInFlight.remove(subpath, flight);
+
+			if (throwable != null) {
+				flight.completeExceptionally(throwable);
+			} else {
+				flight.complete(json);
+			}
+		});
+
+		return flight.thenApply(json -> json);
+	}
+
+	/**
+	 * Requests and parses a json object. If a previous response carried an ETag or Last-Modified header, the
+	 * request is sent conditionally and a 304 Not Modified is answered with the cached object without parsing.
+	 *
+	 * @param subpath
+	 * @param priority
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	private CompletableFuture<JSONObject> fetchJson(String subpath, RequestPriority priority)
+			throws URISyntaxException {
+		String url = baseUri.toString() + new URI(subpath).toString();
+		JsonRevalidationCache.CachedJson cached = jsonCache.get(url);
+
+		if (cached != null && offline) {
+			statistics.servedFromCache();
+			return CompletableFuture.completedFuture(cached.getJson());
+		}
+
+		Request request = new Request.Builder().url(url).tag(RequestPriority.class, priority).build();
+		if (cached != null) {
+			request = cached.addConditions(request);
+		}
+
+		CompletableFuture<JSONObject> futureJson = new CompletableFuture<>();
+
+		send(request, new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				futureJson.completeExceptionally(e);
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (ResponseBody body = response.body()) {
+					if (response.code() == 304 && cached != null) {
+						statistics.notModified();
+						futureJson.complete(cached.getJson());
+					} else if (response.isSuccessful()) {
+						JSONObject json = (JSONObject) new JSONParser().parse(body.string());
+						jsonCache.put(url, response, json);
+						futureJson.complete(json);
+					} else {
+						futureJson.completeExceptionally(
+								new HttpStatusException(url, response.code(), response.message()));
+					}
+				} catch (IOException | ParseException | ClassCastException e) {
+					futureJson.completeExceptionally(e);
+				}
+			}
+		});
+
+		return futureJson;
 	}
 
 	/**
 	 * @param subpath
 	 * @param params
 	 * @return
-	 * @throws ClientProtocolException
 	 * @throws URISyntaxException
 	 * @throws IOException
 	 */
-	public Future<Response> postJson(String subpath, JSONObject params) throws URISyntaxException, IOException {
+	public CompletableFuture<Response> postJson(String subpath, JSONObject params)
+			throws URISyntaxException, IOException {
 		return postJson(new URI(subpath), params);
 	}
 
@@ -196,45 +590,26 @@ public class BasicHttpClient {
 	 * @param params
 	 * @return
 	 * @throws URISyntaxException
-	 * @throws ClientProtocolException
 	 * @throws IOException
 	 */
-	public Future<Response> postJson(URI subpath, JSONObject params) throws URISyntaxException, IOException {
+	public CompletableFuture<Response> postJson(URI subpath, JSONObject params) throws URISyntaxException, IOException {
 		assert subpath != null;
 
-		OkHttpClient httpClient = getHttpClient();
-
 		log.debug("POST " + baseUri.toString() + subpath.toString());
 		Request request = new Request.Builder().url(baseUri.toString() + subpath.toString())
 				.post(RequestBody.create(MediaType.parse("application/json"), params.toString())).build();
 
-		Future<Response> futurePostResponse = null;
-
-		try {
-			futurePostResponse = executorService.submit(new Callable<Response>() {
-				@Override
-				public Response call() throws Exception {
-					return httpClient.newCall(request).execute();
-				}
-			});
-		} catch (RejectedExecutionException e) {
-			e.printStackTrace();
-		} catch (NullPointerException e) {
-			e.printStackTrace();
-		}
-
-		return futurePostResponse;
+		return enqueue(request);
 	}
 
 	/**
 	 * @param subpath
 	 * @param urlEncodedMap
 	 * @return
-	 * @throws ClientProtocolException
 	 * @throws URISyntaxException
 	 * @throws IOException
 	 */
-	public Future<Response> postURLEncoded(String subpath, Map<String, String> urlEncodedMap)
+	public CompletableFuture<Response> postURLEncoded(String subpath, Map<String, String> urlEncodedMap)
 			throws URISyntaxException, IOException {
 		return postURLEncoded(new URI(subpath), urlEncodedMap);
 	}
@@ -244,21 +619,18 @@ public class BasicHttpClient {
 	 * @param urlEncodedMap
 	 * @return
 	 * @throws URISyntaxException
-	 * @throws ClientProtocolException
 	 * @throws IOException
 	 */
-	public Future<Response> postURLEncoded(URI subpath, Map<String, String> urlEncodedMap)
+	public CompletableFuture<Response> postURLEncoded(URI subpath, Map<String, String> urlEncodedMap)
 			throws URISyntaxException, IOException {
 		assert subpath != null;
 
-		OkHttpClient httpClient = getHttpClient();
-		
 		log.debug("POST " + baseUri.toString() + subpath.toString());
 		Request.Builder requestBuilder = new Request.Builder().url(baseUri.toString() + subpath.toString());
-		
+
 		if (urlEncodedMap != null && !urlEncodedMap.isEmpty()) {
 			FormBody.Builder formBody = new FormBody.Builder();
-			
+
 			urlEncodedMap.entrySet().stream().forEach(e -> {
 				formBody.add(e.getKey(), e.getValue());
 			});
@@ -266,24 +638,437 @@ public class BasicHttpClient {
 			requestBuilder.post(formBody.build());
 		}
 
-		Request request = requestBuilder.build();
-		
-		Future<Response> futurePostResponse = null;
+		return enqueue(requestBuilder.build());
+	}
+
+	/**
+	 * Hands the request to the dispatcher of the shared OkHttpClient. The returned future is completed by the
+	 * dispatcher thread which received the response headers; the caller is responsible for closing the response.
+	 * GET requests are retried on transient failures, see {@link #send(Request, Callback)}.
+	 *
+	 * @param request
+	 * @return
+	 */
+	private CompletableFuture<Response> enqueue(Request request) {
+		CompletableFuture<Response> futureResponse = new CompletableFuture<>();
+
+		send(request, completing(futureResponse));
+
+		return futureResponse;
+	}
+
+	/**
+	 * Hands a call prepared by {@link #newCall(String, Map)} to the dispatcher.
+	 *
+	 * @param call
+	 * @return
+	 */
+	public CompletableFuture<Response> enqueue(Call call) {
+		CompletableFuture<Response> futureResponse = new CompletableFuture<>();
+
+		send(call, completing(futureResponse));
+
+		return futureResponse;
+	}
+
+	private static Callback completing(CompletableFuture<Response> futureResponse) {
+		return new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				futureResponse.completeExceptionally(e);
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				if (!futureResponse.complete(response)) {
+					response.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Sends the request. GET requests which fail with a connection reset, a timeout, 429 or 5xx are sent again
+	 * after an exponentially growing, jittered delay or the delay requested by a Retry-After header. The callback
+	 * receives the last failure or response once the retries are used up or the next attempt would exceed the
+	 * request deadline, which also bounds each attempt.
+	 *
+	 * @param request
+	 * @param callback
+	 */
+	private void send(Request request, Callback callback) {
+		if (!"GET".equals(request.method())) {
+			send(getHttpClient().newCall(request), callback);
+			return;
+		}
+
+		if (offline) {
+			Runnable onMiss = () -> callback.onFailure(getHttpClient().newCall(request),
+					new IOException("Offline: " + request.url() + " is not cached"));
+
+			if (getHttpClient().cache() != null) {
+				sendFromCache(request, callback, onMiss);
+			} else {
+				onMiss.run();
+			}
+			return;
+		}
+
+		long deadlineMillis = config.getRequestDeadlineMillis();
+		long deadline = deadlineMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis) : 0;
+
+		sendAttempt(request, callback, 0, deadline);
+	}
+
+	private void sendAttempt(Request request, Callback callback, int retry, long deadline) {
+		Call attempt = getHttpClient().newCall(request);
+
+		if (deadline != 0) {
+			attempt.timeout().timeout(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+
+		send(attempt, new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				if (!call.isCanceled() && retryPolicy.isRetryable(e)
+						&& scheduleRetry(request, callback, retry, deadline, null, e.toString())) {
+					return;
+				}
+
+				if (getHttpClient().cache() != null && isMetadata(request)) {
+					// server unreachable, a stale copy is better than nothing
+					sendFromCache(request, callback, () -> callback.onFailure(call, e));
+				} else {
+					callback.onFailure(call, e);
+				}
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) throws IOException {
+				if (retryPolicy.isRetryable(response.code()) && scheduleRetry(request, callback, retry, deadline,
+						response.header("Retry-After"), "HTTP " + response.code())) {
+					response.close();
+					return;
+				}
+
+				callback.onResponse(call, response);
+			}
+		});
+	}
+
+	/**
+	 * Answers the request from the response cache only, regardless of how old the cached response is.
+	 *
+	 * @param request
+	 * @param callback
+	 *            receives the cached response
+	 * @param onMiss
+	 *            run instead, if the response is not cached
+	 */
+	private void sendFromCache(Request request, Callback callback, Runnable onMiss) {
+		Request cacheRequest = request.newBuilder().cacheControl(CacheControl.FORCE_CACHE).build();
+
+		// no network involved, so the concurrency limiter is bypassed
+		getHttpClient().newCall(cacheRequest).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				onMiss.run();
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) throws IOException {
+				if (response.code() == 504) {
+					// unsatisfiable request
+					response.close();
+					onMiss.run();
+					return;
+				}
+
+				if (!offline) {
+					log.warn("Serving cached response for " + request.url());
+				}
+
+				statistics.servedFromCache();
+				callback.onResponse(call, response);
+			}
+		});
+	}
+
+	/**
+	 * @param request
+	 * @return true for API requests of metadata, which are small and worth keeping in the response cache, unlike
+	 *         file downloads
+	 */
+	private static boolean isMetadata(Request request) {
+		String path = request.url().encodedPath();
+
+		return "GET".equals(request.method()) && path.contains(SubPaths.API.getPath() + "/")
+				&& !path.endsWith("/download");
+	}
+
+	/**
+	 * @return false, if the request must not be retried anymore
+	 */
+	private boolean scheduleRetry(Request request, Callback callback, int retry, long deadline, String retryAfter,
+			String reason) {
+		long delayMillis = retryPolicy.getDelayMillis(retry, retryAfter);
+
+		if (retry >= retryPolicy.getMaxRetries()
+				|| (deadline != 0 && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadline)) {
+			log.warn("Giving up " + request.url() + " after " + (retry + 1) + " attempts: " + reason);
+			statistics.retryGivenUp();
+			return false;
+		}
 
 		try {
-			futurePostResponse = executorService.submit(new Callable<Response>() {
-				@Override
-				public Response call() throws Exception {
-					return httpClient.newCall(request).execute();
+			retryScheduler.schedule(() -> sendAttempt(request, callback, retry + 1, deadline), delayMillis,
+					TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// client has been closed
+			return false;
+		}
+
+		log.debug("Retrying " + request.url() + " in " + delayMillis + " ms: " + reason);
+		statistics.retried();
+		return true;
+	}
+
+	/**
+	 * Enqueues the call as soon as the {@link AdaptiveConcurrencyLimiter} grants a permit for the priority of the
+	 * request and the {@link HostRateLimiter} of the host has a token for it. The permit is returned after the
+	 * callback has been invoked, together with the latency and outcome of the request. A
+	 * {@link RequestPriority#BULK} response from the network keeps its permit until its body is closed, so the bulk
+	 * share bounds the running transfers and not just the waiting for their headers. While the bandwidth limit of the
+	 * host pauses reading such a body, its permit is lent to the waiting requests, see {@link BulkPermit}. A bulk
+	 * request which does not get a permit within {@link HttpClientConfig#getBulkPermitTimeoutMillis()} fails.
+	 *
+	 * @param call
+	 * @param callback
+	 */
+	private void send(Call call, Callback callback) {
+		CircuitBreaker circuitBreaker = getCircuitBreaker(call.request());
+
+		if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+			callback.onFailure(call,
+					new CircuitBreakerOpenException(circuitBreaker.getName(), circuitBreaker.getRetryInMillis()));
+			return;
+		}
+
+		RequestPriority priority = getPriority(call.request());
+		CompletableFuture<Void> permit = concurrencyLimiter.acquire(priority);
+
+		if (priority == RequestPriority.BULK && !permit.isDone()) {
+			failAfterPermitTimeout(call, callback, permit, circuitBreaker);
+		}
+
+		permit.thenRun(() -> {
+			// waiting for the token after the permit keeps the order of the priorities
+			long delayNanos = getRateLimiter(call.request().url().host()).reserveRequest();
+
+			if (delayNanos <= 0) {
+				enqueueWithPermit(call, callback, priority, circuitBreaker);
+				return;
+			}
+
+			try {
+				retryScheduler.schedule(() -> enqueueWithPermit(call, callback, priority, circuitBreaker), delayNanos,
+						TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				// client has been closed, fails the call right away
+				call.cancel();
+				enqueueWithPermit(call, callback, priority, circuitBreaker);
+			}
+		});
+	}
+
+	/**
+	 * Fails the call if its bulk permit has not been granted in time, so a permit which is never returned cannot
+	 * block the downloads for good.
+	 */
+	private void failAfterPermitTimeout(Call call, Callback callback, CompletableFuture<Void> permit,
+			CircuitBreaker circuitBreaker) {
+		long timeoutMillis = config.getBulkPermitTimeoutMillis();
+
+		if (timeoutMillis <= 0) {
+			return;
+		}
+
+		ScheduledFuture<?> timeout;
+		try {
+			timeout = retryScheduler.schedule(() -> {
+				if (!concurrencyLimiter.abandon(RequestPriority.BULK, permit)) {
+					// granted in the meantime
+					return;
 				}
-			});
+
+				if (circuitBreaker != null) {
+					circuitBreaker.onIgnored();
+				}
+
+				log.warn("No permit for " + call.request().url() + " within " + timeoutMillis + " ms, "
+						+ concurrencyLimiter);
+				callback.onFailure(call, new InterruptedIOException(
+						"No permit for " + call.request().url() + " within " + timeoutMillis + " ms"));
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
 		} catch (RejectedExecutionException e) {
-			e.printStackTrace();
-		} catch (NullPointerException e) {
-			e.printStackTrace();
+			// client has been closed
+			return;
+		}
+
+		permit.thenRun(() -> timeout.cancel(false));
+	}
+
+	/**
+	 * Enqueues the call after it has been granted a permit, see {@link #send(Call, Callback)}.
+	 */
+	private void enqueueWithPermit(Call call, Callback callback, RequestPriority priority,
+			CircuitBreaker circuitBreaker) {
+		long start = System.nanoTime();
+
+		call.enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				if (circuitBreaker != null) {
+					if (call.isCanceled()) {
+						circuitBreaker.onIgnored();
+					} else {
+						circuitBreaker.onFailure();
+					}
+				}
+
+				try {
+					callback.onFailure(call, e);
+				} finally {
+					if (call.isCanceled()) {
+						concurrencyLimiter.release(priority);
+					} else {
+						concurrencyLimiter.release(priority, System.nanoTime() - start, true);
+					}
+				}
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) throws IOException {
+				long latency = System.nanoTime() - start;
+				boolean fromNetwork = response.networkResponse() != null;
+
+				if (circuitBreaker != null) {
+					if (!fromNetwork) {
+						circuitBreaker.onIgnored();
+					} else if (response.code() >= 500) {
+						circuitBreaker.onFailure();
+					} else {
+						circuitBreaker.onSuccess();
+					}
+				}
+
+				if (fromNetwork && priority == RequestPriority.BULK && response.body() != null) {
+					BulkPermit permit = new BulkPermit(concurrencyLimiter, latency, isOverloaded(response.code()),
+							config.getBulkPermitTimeoutMillis());
+					HostRateLimiter rateLimiter = getRateLimiter(response.request().url().host());
+					Response releasingResponse = response.newBuilder()
+							.body(releasingOnClose(rateLimiter.throttle(response.body(), permit), permit::close))
+							.build();
+					boolean handled = false;
+
+					try {
+						callback.onResponse(call, releasingResponse);
+						handled = true;
+					} finally {
+						if (!handled) {
+							releasingResponse.close();
+						}
+					}
+					return;
+				}
+
+				try {
+					callback.onResponse(call, response);
+				} finally {
+					if (fromNetwork) {
+						concurrencyLimiter.release(priority, latency, isOverloaded(response.code()));
+					} else {
+						// a cache hit tells nothing about the server
+						concurrencyLimiter.release(priority);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param body
+	 * @param onClose
+	 * @return the body, which runs onClose after it has been closed
+	 */
+	private static ResponseBody releasingOnClose(ResponseBody body, Runnable onClose) {
+		Source source = new ForwardingSource(body.source()) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					onClose.run();
+				}
+			}
+		};
+
+		return ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source));
+	}
+
+	/**
+	 * @param request
+	 * @return priority the request was tagged with, {@link RequestPriority#METADATA} for untagged requests
+	 */
+	private static RequestPriority getPriority(Request request) {
+		RequestPriority priority = request.tag(RequestPriority.class);
+		return priority != null ? priority : RequestPriority.METADATA;
+	}
+
+	/**
+	 * @param request
+	 * @return the circuit breaker of the API endpoint the request is sent to or null, if the path does not belong to
+	 *         any known endpoint
+	 */
+	private CircuitBreaker getCircuitBreaker(Request request) {
+		String path = request.url().encodedPath();
+		int api = path.indexOf(SubPaths.API.getPath() + "/");
+
+		if (api < 0) {
+			return null;
+		}
+
+		Endpoints endpoint = Endpoints.fromPath(path.substring(api + SubPaths.API.getPath().length()));
+		return endpoint == null ? null : circuitBreakers.get(endpoint);
+	}
+
+	/**
+	 * @param code
+	 * @return true, if the status code tells that the server cannot cope with the load
+	 */
+	private static boolean isOverloaded(int code) {
+		return code == 429 || code >= 500;
+	}
+
+	/**
+	 * Counts for every acquired connection whether it had to be connected first or was taken from the pool.
+	 * OkHttp creates one listener per call and reports its events sequentially.
+	 */
+	private class ConnectionTrackingEventListener extends EventListener {
+
+		private boolean connectStarted = false;
+
+		@Override
+		public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+			connectStarted = true;
+		}
+
+		@Override
+		public void connectionAcquired(Call call, Connection connection) {
+			statistics.connectionAcquired(connectStarted);
+			connectStarted = false;
 		}
 
-		return futurePostResponse;
 	}
 
-}
\ No newline at end of file
+}
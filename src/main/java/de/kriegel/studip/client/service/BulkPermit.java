@@ -0,0 +1,117 @@
+package de.kriegel.studip.client.service;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@link RequestPriority#BULK} permit of a response body, which is returned for good once the body is closed.
+ * While the {@link HostRateLimiter} pauses reading the body, the permit is lent to the waiting requests, so a
+ * throttled download never holds it past the slice it has just read. Before the next slice is read, the permit is
+ * taken back ahead of the other waiting downloads.
+ *
+ * @author Josef
+ */
+class BulkPermit {
+
+	private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+	private final long latencyNanos;
+	private final boolean overloaded;
+	// 0 waits forever
+	private final long timeoutMillis;
+
+	private final AtomicBoolean held = new AtomicBoolean(true);
+	private volatile boolean closed = false;
+
+	/**
+	 * @param concurrencyLimiter
+	 *            which has granted the permit
+	 * @param latencyNanos
+	 *            time until the response headers arrived
+	 * @param overloaded
+	 *            true, if the server rejected the request
+	 * @param timeoutMillis
+	 *            time to wait for a lent permit, 0 waits forever
+	 */
+	BulkPermit(AdaptiveConcurrencyLimiter concurrencyLimiter, long latencyNanos, boolean overloaded,
+			long timeoutMillis) {
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.latencyNanos = latencyNanos;
+		this.overloaded = overloaded;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Lends the permit while reading pauses. The permit of a rejected request is kept, since only its final release
+	 * reports the overload.
+	 */
+	void lend() {
+		if (!overloaded && held.compareAndSet(true, false)) {
+			concurrencyLimiter.release(RequestPriority.BULK);
+		}
+	}
+
+	/**
+	 * Takes a lent permit back, so the next slice may be read.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the permit has not been granted in time or the thread has been interrupted while waiting
+	 */
+	void takeBack() throws InterruptedIOException {
+		if (closed || held.get()) {
+			return;
+		}
+
+		CompletableFuture<Void> permit = concurrencyLimiter.reacquire(RequestPriority.BULK);
+
+		try {
+			if (timeoutMillis > 0) {
+				permit.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			} else {
+				permit.get();
+			}
+		} catch (InterruptedException | TimeoutException e) {
+			boolean interrupted = e instanceof InterruptedException;
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (concurrencyLimiter.abandon(RequestPriority.BULK, permit)) {
+				throw new InterruptedIOException(interrupted ? "Interrupted while waiting for a permit"
+						: "No permit within " + timeoutMillis + " ms");
+			}
+			// granted in the meantime
+		} catch (ExecutionException e) {
+			// waiters are never completed exceptionally
+			throw new IllegalStateException(e);
+		}
+
+		held.set(true);
+
+		if (closed && held.compareAndSet(true, false)) {
+			// closed while waiting, the close did not find a permit to return
+			concurrencyLimiter.release(RequestPriority.BULK);
+		}
+	}
+
+	/**
+	 * Returns the permit for good, together with the latency and outcome of the request, unless it is lent right
+	 * now.
+	 */
+	void close() {
+		closed = true;
+
+		if (held.compareAndSet(true, false)) {
+			concurrencyLimiter.release(RequestPriority.BULK, latencyNanos, overloaded);
+		}
+	}
+
+	boolean isHeld() {
+		return held.get();
+	}
+
+}
@@ -0,0 +1,187 @@
+package de.kriegel.studip.client.service;
+
+import de.kriegel.studip.client.config.HttpClientConfig;
+
+/**
+ * Circuit breaker of a single endpoint. While closed, the outcomes of the last requests are kept in a ring buffer
+ * and the breaker opens as soon as their failure rate reaches the threshold. While open, requests are rejected
+ * right away. After the open duration a few probe requests are let through: if all of them succeed, the breaker
+ * closes, a single failure opens it again.
+ *
+ * @author Josef
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+
+	private final double failureRateThreshold;
+	private final int minimumRequests;
+	private final long openMillis;
+	private final int halfOpenProbes;
+
+	private State state = State.CLOSED;
+
+	// outcomes of the last requests while closed, true for failures
+	private final boolean[] outcomes;
+	private int outcomeIndex = 0;
+	private int outcomeCount = 0;
+	private int failureCount = 0;
+
+	private long openUntil = 0;
+	private int probesInFlight = 0;
+	private int probeSuccesses = 0;
+
+	private long openings = 0;
+	private long rejectedRequests = 0;
+
+	CircuitBreaker(String name, HttpClientConfig config) {
+		this.name = name;
+		this.failureRateThreshold = config.getCircuitBreakerFailureRate();
+		this.minimumRequests = config.getCircuitBreakerMinimumRequests();
+		this.openMillis = config.getCircuitBreakerOpenMillis();
+		this.halfOpenProbes = config.getCircuitBreakerHalfOpenProbes();
+
+		outcomes = new boolean[Math.max(1, config.getCircuitBreakerWindowSize())];
+	}
+
+	/**
+	 * Asks for permission to send a request. Every granted request has to be reported with
+	 * {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}.
+	 *
+	 * @return true, if the request may be sent
+	 */
+	synchronized boolean tryAcquire() {
+		if (state == State.OPEN) {
+			if (System.currentTimeMillis() < openUntil) {
+				rejectedRequests++;
+				return false;
+			}
+
+			state = State.HALF_OPEN;
+			probesInFlight = 0;
+			probeSuccesses = 0;
+		}
+
+		if (state == State.HALF_OPEN) {
+			if (probesInFlight >= halfOpenProbes) {
+				rejectedRequests++;
+				return false;
+			}
+
+			probesInFlight++;
+		}
+
+		return true;
+	}
+
+	synchronized void onSuccess() {
+		if (state == State.HALF_OPEN) {
+			probesInFlight--;
+
+			if (++probeSuccesses >= halfOpenProbes) {
+				close();
+			}
+		} else if (state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			open();
+		} else if (state == State.CLOSED) {
+			record(true);
+
+			if (outcomeCount >= minimumRequests && failureCount >= failureRateThreshold * outcomeCount) {
+				open();
+			}
+		}
+	}
+
+	/**
+	 * Reports a request which tells nothing about the endpoint, e.g. because it has been cancelled.
+	 */
+	synchronized void onIgnored() {
+		if (state == State.HALF_OPEN) {
+			probesInFlight--;
+		}
+	}
+
+	private void record(boolean failure) {
+		if (outcomeCount == outcomes.length) {
+			if (outcomes[outcomeIndex]) {
+				failureCount--;
+			}
+		} else {
+			outcomeCount++;
+		}
+
+		outcomes[outcomeIndex] = failure;
+		outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+
+		if (failure) {
+			failureCount++;
+		}
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openUntil = System.currentTimeMillis() + openMillis;
+		openings++;
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		outcomeIndex = 0;
+		outcomeCount = 0;
+		failureCount = 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return time until an open breaker lets probe requests through, 0 if it is not open
+	 */
+	public synchronized long getRetryInMillis() {
+		return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+	}
+
+	/**
+	 * @return share of failed requests among the last requests while closed, between 0 and 1
+	 */
+	public synchronized double getFailureRate() {
+		return outcomeCount == 0 ? 0 : failureCount / (double) outcomeCount;
+	}
+
+	/**
+	 * @return how often the breaker opened
+	 */
+	public synchronized long getOpenings() {
+		return openings;
+	}
+
+	/**
+	 * @return amount of requests failed fast without being sent
+	 */
+	public synchronized long getRejectedRequests() {
+		return rejectedRequests;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CircuitBreaker " + name + ": state: " + state + ", failureRate: "
+				+ String.format("%.2f", getFailureRate()) + ", openings: " + openings + ", rejectedRequests: "
+				+ rejectedRequests;
+	}
+
+}
@@ -1,7 +1,6 @@
 package de.kriegel.studip.client.service;
 
 import java.io.File;
-import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -11,26 +10,23 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import de.kriegel.studip.client.content.model.data.*;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.kriegel.studip.client.config.Endpoints;
 import de.kriegel.studip.client.config.SubPaths;
-import de.kriegel.studip.client.content.model.file.FileRefNode;
+import de.kriegel.studip.client.content.model.file.FileRefNodeListener;
 import de.kriegel.studip.client.content.model.file.FileRefTree;
 import de.kriegel.studip.client.download.DownloadManager;
+import de.kriegel.studip.client.exception.HttpStatusException;
 import de.kriegel.studip.client.exception.NotAuthenticatedException;
-import okhttp3.Response;
 
 public class CourseService {
 
@@ -46,7 +42,15 @@ public class CourseService {
 
     private final Map<Id, Course> courseCache = new HashMap<>();
 
-    private final ExecutorService es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_MAX_CONCURRENT_CRAWL_REQUESTS = 8;
+
+    private final AsyncSemaphore crawlRequestLimiter = new AsyncSemaphore(DEFAULT_MAX_CONCURRENT_CRAWL_REQUESTS);
+
+    public static final long DEFAULT_FULL_CRAWL_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    private long fullCrawlIntervalMillis = DEFAULT_FULL_CRAWL_INTERVAL_MILLIS;
+
+    private final Map<Id, CrawledFileRefTree> fileRefTreeCache = new ConcurrentHashMap<>();
 
     public CourseService(BasicHttpClient httpClient, AuthService authService) {
         this.httpClient = httpClient;
@@ -58,7 +62,6 @@ public class CourseService {
     public void close() {
         log.info("Closing CourseService");
         downloadManager.close();
-        es.shutdown();
     }
 
     public DownloadManager getDownloadManager() {
@@ -72,27 +75,18 @@ public class CourseService {
             courseCache.get(courseId);
         }
 
-        Response response;
-
         try {
-            response = httpClient
-                    .get(SubPaths.API.toString() + Endpoints.COURSE.toString().replace(":course_id", courseId.asHex()))
+            JSONObject responseJson = httpClient
+                    .getJson(SubPaths.API.toString() + Endpoints.COURSE.toString().replace(":course_id", courseId.asHex()))
                     .get();
 
-            if (response.isSuccessful()) {
-                String responseBody = httpClient.getResponseBody(response).get();
-                JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
-
-                Course course = Course.fromJson(responseJson);
+            Course course = Course.fromJson(responseJson);
 
-                courseCache.put(courseId, course);
+            courseCache.put(courseId, course);
 
-                return course;
-            }
+            return course;
 
-        } catch (URISyntaxException | IOException e) {
-            e.printStackTrace();
-        } catch (ParseException e) {
+        } catch (URISyntaxException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -106,26 +100,20 @@ public class CourseService {
     public int getAmountCourses() throws NotAuthenticatedException, ParseException {
         authService.checkIfAuthenticated();
 
-        Response response;
-
         try {
-            response = httpClient.get(SubPaths.API.toString()
+            JSONObject responseJson = httpClient.getJson(SubPaths.API.toString()
                     + Endpoints.USER_COURSES.toString().replace(":user_id", authService.getCurrentUserId().asHex())
-                    + "?limit=1").get();
-
-            if (response.isSuccessful()) {
-                String responseBody = httpClient.getResponseBody(response).get();
-                JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
+                    + "?limit=1")
+                    .get();
 
-                if (responseJson.containsKey("pagination")) {
-                    JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
+            if (responseJson.containsKey("pagination")) {
+                JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
 
-                    if (paginationJson.containsKey("total")) {
-                        return Integer.parseInt(paginationJson.get("total").toString());
-                    }
+                if (paginationJson.containsKey("total")) {
+                    return Integer.parseInt(paginationJson.get("total").toString());
                 }
             }
-        } catch (URISyntaxException | IOException e) {
+        } catch (URISyntaxException e) {
             e.printStackTrace();
             return -1;
         } catch (InterruptedException e) {
@@ -153,32 +141,26 @@ public class CourseService {
 
         List<Course> allCourses = new ArrayList<>();
 
-        Response response;
-
         for (int offset = 0; offset < totalAmountCourses; offset += limit) {
             try {
-                response = httpClient.get(SubPaths.API.toString()
+                JSONObject responseJson = httpClient.getJson(SubPaths.API.toString()
                         + Endpoints.USER_COURSES.toString().replace(":user_id", authService.getCurrentUserId().asHex())
-                        + "?offset=" + offset + "&limit=" + limit).get();
-
-                if (response.isSuccessful()) {
-                    String responseBody = httpClient.getResponseBody(response).get();
-                    JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
+                        + "?offset=" + offset + "&limit=" + limit)
+                        .get();
 
-                    if (responseJson.containsKey("collection")) {
-                        for (Entry<String, JSONObject> entry : ((Map<String, JSONObject>) responseJson
-                                .get("collection")).entrySet()) {
+                if (responseJson.containsKey("collection")) {
+                    for (Entry<String, JSONObject> entry : ((Map<String, JSONObject>) responseJson
+                            .get("collection")).entrySet()) {
 
-                            Course course = Course.fromJson(entry.getValue());
+                        Course course = Course.fromJson(entry.getValue());
 
-                            courseCache.putIfAbsent(course.getId(), course);
+                        courseCache.putIfAbsent(course.getId(), course);
 
-                            allCourses.add(course);
-                        }
+                        allCourses.add(course);
                     }
                 }
 
-            } catch (URISyntaxException | IOException e) {
+            } catch (URISyntaxException e) {
                 e.printStackTrace();
                 return null;
             } catch (InterruptedException e) {
@@ -225,146 +207,94 @@ public class CourseService {
         return courseTutorialMap;
     }
 
-    public FileRefTree getFileRefTree(Course course) throws Exception {
-        authService.checkIfAuthenticated();
-
-        Response response;
-        try {
-            response = httpClient
-                    .get(SubPaths.API.toString()
-                            + Endpoints.COURSE_TOP_FOLDER.toString().replace(":course_id", course.getId().asHex()))
-                    .get();
-        } catch (URISyntaxException | IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-
-        String responseBody = httpClient.getResponseBody(response).get();
-        JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
-        Folder folder = Folder.fromJson(responseJson);
-
-        FileRefTree fileRefTree = new FileRefTree(folder);
-        fetchAndAddFileRefsForCourseRecursively(fileRefTree.getRoot(), fileRefTree);
-
-        return fileRefTree;
+    /**
+     * Crawls the folder structure of the given course. Sibling folders are fetched in parallel, at most
+     * {@link #getMaxConcurrentCrawlRequests()} requests of all running crawls are in flight at the same time.
+     * <p>
+     * The last crawled tree of every course is kept, subsequent crawls only fetch folders whose chdate changed since
+     * then. As a change deep down in a subtree does not necessarily change the chdate of its ancestors, a full crawl
+     * is done once the last one is older than {@link #getFullCrawlIntervalMillis()}.
+     *
+     * @param course
+     * @return
+     * @throws NotAuthenticatedException
+     */
+    public CompletableFuture<FileRefTree> getFileRefTreeAsync(Course course) throws NotAuthenticatedException {
+        return getFileRefTreeAsync(course, null);
     }
 
-    private FileRef getFileRefFromId(Id id) throws NotAuthenticatedException, ParseException {
+    /**
+     * Same as {@link #getFileRefTreeAsync(Course)}, but passes every folder and file to the given listener as soon
+     * as it is known. The returned future completes after the listener received all nodes of the tree.
+     *
+     * @param course
+     * @param listener
+     * @return
+     * @throws NotAuthenticatedException
+     */
+    public CompletableFuture<FileRefTree> getFileRefTreeAsync(Course course, FileRefNodeListener listener)
+            throws NotAuthenticatedException {
         authService.checkIfAuthenticated();
 
-        Response response;
-        try {
-            response = httpClient.get(SubPaths.API + Endpoints.FILE.getPath().replace(":file_id", id.asHex())).get();
-
-            String responseBody = httpClient.getResponseBody(response).get();
-            JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
+        long now = System.currentTimeMillis();
 
-            return FileRef.fromJson(responseJson);
+        CrawledFileRefTree cached = fileRefTreeCache.get(course.getId());
+        boolean fullCrawl = cached == null || now - cached.lastFullCrawl >= fullCrawlIntervalMillis;
 
-        } catch (URISyntaxException | IOException e) {
-            e.printStackTrace();
-            return null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
+        FileRefTree previousFileRefTree = fullCrawl ? null : cached.fileRefTree;
+        long lastFullCrawl = fullCrawl ? now : cached.lastFullCrawl;
 
-        return null;
+        return new FileRefTreeCrawler(httpClient, crawlRequestLimiter, previousFileRefTree, listener)
+                .crawl(course.getId()).thenApply(fileRefTree -> {
+                    fileRefTreeCache.put(course.getId(), new CrawledFileRefTree(fileRefTree, lastFullCrawl));
+                    return fileRefTree;
+                });
     }
 
-    private Folder getFolderFromId(Id id) throws NotAuthenticatedException, ParseException {
-        authService.checkIfAuthenticated();
-
-        Response response;
-        try {
-            response = httpClient.get(SubPaths.API + Endpoints.FOLDER.getPath().replace(":folder_id", id.asHex()))
-                    .get();
-
-            String responseBody = httpClient.getResponseBody(response).get();
-            JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
-
-            return Folder.fromJson(responseJson);
-
-        } catch (URISyntaxException | IOException e) {
-            e.printStackTrace();
-            return null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
-
-        return null;
+    public FileRefTree getFileRefTree(Course course) throws Exception {
+        return getFileRefTreeAsync(course).get();
     }
 
-    private void fetchAndAddFileRefsForCourseRecursively(FileRefNode node, FileRefTree fileRefTree) throws Exception {
-
-        if (node.isDirectory()) {
-            List<CompletableFuture<FileRef>> fileRefs = new ArrayList<>();
-            // List<FileRef> fileRefs = new ArrayList<>();
-
-            for(Id fileRefId : node.getFolder().getFileRefs()) {
-                // try {
-                // fileRefs.add(getFileRefFromId(fileRefId));
-                // } catch (NotAuthenticatedException | ParseException e) {
-                // e.printStackTrace();
-                // }
-
-                fileRefs.add(CompletableFuture.supplyAsync(new Supplier<FileRef>() {
-                    @Override
-                    public FileRef get() {
-                        try {
-                            return getFileRefFromId(fileRefId);
-                        } catch (NotAuthenticatedException | ParseException e) {
-                            e.printStackTrace();
-                        }
-                        return null;
-                    }
-                }, es));
-            }
-            // });
-
-            // for (CompletableFuture<FileRef> cfFileRef : fileRefs) {
-            // FileRefNode fileRefNode = fileRefTree.createFileNode(cfFileRef.get());
-            for (CompletableFuture<FileRef> cfFileRef : fileRefs) {
-                FileRefNode fileRefNode = fileRefTree.createFileNode(cfFileRef.get());
+    /**
+     * Forgets the previously crawled tree of the given course, so the next crawl fetches every folder again.
+     *
+     * @param course
+     */
+    public void invalidateFileRefTree(Course course) {
+        fileRefTreeCache.remove(course.getId());
+    }
 
-                node.addFileRefNode(fileRefNode);
-            }
+    public long getFullCrawlIntervalMillis() {
+        return fullCrawlIntervalMillis;
+    }
 
-            for (Id folderId : node.getFolder().getSubfolders()) {
-                Folder folder = getFolderFromId(folderId);
-                FileRefNode fileRefNode = fileRefTree.createFileNode(folder);
+    public void setFullCrawlIntervalMillis(long fullCrawlIntervalMillis) {
+        this.fullCrawlIntervalMillis = fullCrawlIntervalMillis;
+    }
 
-                node.addFileRefNode(fileRefNode);
-                fetchAndAddFileRefsForCourseRecursively(fileRefNode, fileRefTree);
-            }
-        }
+    public int getMaxConcurrentCrawlRequests() {
+        return crawlRequestLimiter.getLimit();
+    }
 
+    public void setMaxConcurrentCrawlRequests(int maxConcurrentCrawlRequests) {
+        crawlRequestLimiter.setLimit(maxConcurrentCrawlRequests);
     }
 
     public int getAmountSemesters() throws NotAuthenticatedException, ParseException {
         authService.checkIfAuthenticated();
 
-        Response response;
-
         try {
-            response = httpClient.get(SubPaths.API.toString() + Endpoints.SEMESTERS.getPath() + "?limit=1").get();
+            JSONObject responseJson = httpClient
+                    .getJson(SubPaths.API.toString() + Endpoints.SEMESTERS.getPath() + "?limit=1").get();
 
-            if (response.isSuccessful()) {
-                String responseBody = httpClient.getResponseBody(response).get();
-                JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
+            if (responseJson.containsKey("pagination")) {
+                JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
 
-                if (responseJson.containsKey("pagination")) {
-                    JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
-
-                    if (paginationJson.containsKey("total")) {
-                        return Integer.parseInt(paginationJson.get("total").toString());
-                    }
+                if (paginationJson.containsKey("total")) {
+                    return Integer.parseInt(paginationJson.get("total").toString());
                 }
             }
-        } catch (URISyntaxException | IOException e) {
+        } catch (URISyntaxException e) {
             e.printStackTrace();
             return -1;
         } catch (InterruptedException e) {
@@ -385,31 +315,23 @@ public class CourseService {
 
         List<Semester> allSemesters = new ArrayList<>();
 
-        Response response;
-
         for (int offset = 0; offset < totalAmountCourses; offset += limit) {
             try {
-                response = httpClient.get(SubPaths.API.toString() + Endpoints.SEMESTERS.getPath() + "?offset=" + offset
-                        + "&limit=" + limit).get();
-
-                if (response.isSuccessful()) {
-                    String responseBody = httpClient.getResponseBody(response).get();
-
-                    JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
+                JSONObject responseJson = httpClient.getJson(SubPaths.API.toString() + Endpoints.SEMESTERS.getPath()
+                        + "?offset=" + offset + "&limit=" + limit).get();
 
-                    if (responseJson.containsKey("collection")) {
+                if (responseJson.containsKey("collection")) {
 
-                        JSONObject jsonObject = (JSONObject) responseJson.get("collection");
+                    JSONObject jsonObject = (JSONObject) responseJson.get("collection");
 
-                        for (String key : (Set<String>) jsonObject.keySet()) {
-                            Semester semester = Semester.fromJson((JSONObject) jsonObject.get(key));
+                    for (String key : (Set<String>) jsonObject.keySet()) {
+                        Semester semester = Semester.fromJson((JSONObject) jsonObject.get(key));
 
-                            allSemesters.add(semester);
-                        }
+                        allSemesters.add(semester);
                     }
                 }
 
-            } catch (URISyntaxException | IOException e) {
+            } catch (URISyntaxException e) {
                 e.printStackTrace();
                 return null;
             } catch (InterruptedException e) {
@@ -439,20 +361,15 @@ public class CourseService {
     public Semester getSemesterById(Id id) throws NotAuthenticatedException, ParseException {
         authService.checkIfAuthenticated();
 
-        Response response;
-
         try {
-            response = httpClient.get(SubPaths.API + Endpoints.SEMESTER.getPath().replace(":semester_id", id.asHex()))
-                    .get();
-
-            String responseBody = httpClient.getResponseBody(response).get();
-            JSONObject responseJson = (JSONObject) (new JSONParser().parse(responseBody));
+            JSONObject responseJson = httpClient
+                    .getJson(SubPaths.API + Endpoints.SEMESTER.getPath().replace(":semester_id", id.asHex())).get();
 
             Semester semester = Semester.fromJson(responseJson);
 
             return semester;
 
-        } catch (URISyntaxException | IOException e) {
+        } catch (URISyntaxException e) {
             e.printStackTrace();
             return null;
         } catch (InterruptedException e) {
@@ -467,35 +384,25 @@ public class CourseService {
     public CourseNews getCourseNewsForCourseNewsId(Id courseId, Id courseNewsId) throws NotAuthenticatedException {
         authService.checkIfAuthenticated();
 
-        Response response;
-
         try {
-            response = httpClient.get(SubPaths.API.toString()
+            JSONObject responseJson = httpClient.getJson(SubPaths.API.toString()
                     + Endpoints.COURSE_NEWS.toString().replace(":news_id", courseNewsId.asHex())).get();
 
-            if (response.isSuccessful()) {
-                String responseBody = httpClient.getResponseBody(response).get();
-                log.debug("getCourseNewsForCourseNewsId: Response: " + responseBody);
-                JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
-                responseJson.put("course_id", courseId);
-
-                return CourseNews.fromJson(responseJson);
-            } else {
-                log.error("Could not get CourseNews for CourseNewsId " + courseNewsId);
-                log.error(response.message());
-                log.error("Returning null instead.");
+            log.debug("getCourseNewsForCourseNewsId: Response: " + responseJson);
+            return CourseNews.fromJson(responseJson, courseId);
 
-                return null;
-            }
-
-        } catch (URISyntaxException | IOException e) {
-            e.printStackTrace();
-        } catch (ParseException e) {
+        } catch (URISyntaxException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
         } catch (ExecutionException e) {
-            e.printStackTrace();
+            if (e.getCause() instanceof HttpStatusException) {
+                log.error("Could not get CourseNews for CourseNewsId " + courseNewsId);
+                log.error(e.getCause().getMessage());
+                log.error("Returning null instead.");
+            } else {
+                e.printStackTrace();
+            }
         }
 
         return null;
@@ -504,28 +411,21 @@ public class CourseService {
     public int getAmountCourseNewsForCourseId(Id id) throws NotAuthenticatedException, ParseException {
         authService.checkIfAuthenticated();
 
-        Response response;
-
         try {
-            response = httpClient
-                    .get(SubPaths.API.toString()
+            JSONObject responseJson = httpClient
+                    .getJson(SubPaths.API.toString()
                             + Endpoints.ALL_COURSE_NEWS.toString().replace(":course_id", id.asHex()) + "?limit=1")
                     .get();
 
-            if (response.isSuccessful()) {
-                String responseBody = httpClient.getResponseBody(response).get();
-                JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
-
-                if (responseJson.containsKey("pagination")) {
-                    JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
+            if (responseJson.containsKey("pagination")) {
+                JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
 
-                    if (paginationJson.containsKey("total")) {
-                        return Integer.parseInt(paginationJson.get("total").toString());
-                    }
+                if (paginationJson.containsKey("total")) {
+                    return Integer.parseInt(paginationJson.get("total").toString());
                 }
             }
 
-        } catch (URISyntaxException | IOException e) {
+        } catch (URISyntaxException e) {
             e.printStackTrace();
             return -1;
         } catch (InterruptedException e) {
@@ -547,31 +447,23 @@ public class CourseService {
 
         List<CourseNews> allCourseNews = new ArrayList<>();
 
-        Response response;
-
         for (int offset = 0; offset < totalAmountCourseNews; offset += limit) {
             try {
-                response = httpClient.get(
+                JSONObject responseJson = httpClient.getJson(
                         SubPaths.API.toString() + Endpoints.ALL_COURSE_NEWS.toString().replace(":course_id", id.asHex())
                                 + "?offset=" + offset + "&limit=" + limit)
                         .get();
 
-                if (response.isSuccessful()) {
-                    String responseBody = httpClient.getResponseBody(response).get();
-                    JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
-
-                    if (responseJson.containsKey("collection")) {
-                        for (Entry<String, JSONObject> entry : ((Map<String, JSONObject>) responseJson
-                                .get("collection")).entrySet()) {
-                            entry.getValue().put("course_id", id);
-                            CourseNews courseNews = CourseNews.fromJson(entry.getValue());
+                if (responseJson.containsKey("collection")) {
+                    for (Entry<String, JSONObject> entry : ((Map<String, JSONObject>) responseJson
+                            .get("collection")).entrySet()) {
+                        CourseNews courseNews = CourseNews.fromJson(entry.getValue(), id);
 
-                            allCourseNews.add(courseNews);
-                        }
+                        allCourseNews.add(courseNews);
                     }
                 }
 
-            } catch (URISyntaxException | IOException e) {
+            } catch (URISyntaxException e) {
                 e.printStackTrace();
                 return null;
             } catch (InterruptedException e) {
@@ -588,28 +480,21 @@ public class CourseService {
     public int getAmountMembersForCourseId(Id id) throws NotAuthenticatedException, ParseException {
         authService.checkIfAuthenticated();
 
-        Response response;
-
         try {
-            response = httpClient
-                    .get(SubPaths.API.toString()
+            JSONObject responseJson = httpClient
+                    .getJson(SubPaths.API.toString()
                             + Endpoints.COURSE_MEMBERS.toString().replace(":course_id", id.asHex()) + "?limit=1")
                     .get();
 
-            if (response.isSuccessful()) {
-                String responseBody = httpClient.getResponseBody(response).get();
-                JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
+            if (responseJson.containsKey("pagination")) {
+                JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
 
-                if (responseJson.containsKey("pagination")) {
-                    JSONObject paginationJson = (JSONObject) responseJson.get("pagination");
-
-                    if (paginationJson.containsKey("total")) {
-                        return Integer.parseInt(paginationJson.get("total").toString());
-                    }
+                if (paginationJson.containsKey("total")) {
+                    return Integer.parseInt(paginationJson.get("total").toString());
                 }
             }
 
-        } catch (URISyntaxException | IOException e) {
+        } catch (URISyntaxException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -629,35 +514,28 @@ public class CourseService {
 
         Map<CourseMemberType, List<User>> courseMembersMap = new HashMap<>();
 
-        Response response;
-
         for (int offset = 0; offset < totalAmountCourseMembers; offset += limit) {
             try {
-                response = httpClient.get(
+                JSONObject responseJson = httpClient.getJson(
                         SubPaths.API.toString() + Endpoints.COURSE_MEMBERS.toString().replace(":course_id", id.asHex())
                                 + "?offset=" + offset + "&limit=" + limit)
                         .get();
 
-                if (response.isSuccessful()) {
-                    String responseBody = httpClient.getResponseBody(response).get();
-                    JSONObject responseJson = (JSONObject) new JSONParser().parse(responseBody);
-
-                    if (responseJson.containsKey("collection")) {
-                        for (Entry<String, JSONObject> entry : ((Map<String, JSONObject>) responseJson
-                                .get("collection")).entrySet()) {
-                            CourseMemberType courseMemberType = CourseMemberType.valueOf(entry.getValue().get("status").toString().toUpperCase());
-                            User member = User.fromJson((JSONObject) entry.getValue().get("member"));
+                if (responseJson.containsKey("collection")) {
+                    for (Entry<String, JSONObject> entry : ((Map<String, JSONObject>) responseJson
+                            .get("collection")).entrySet()) {
+                        CourseMemberType courseMemberType = CourseMemberType.valueOf(entry.getValue().get("status").toString().toUpperCase());
+                        User member = User.fromJson((JSONObject) entry.getValue().get("member"));
 
-                            if (!courseMembersMap.containsKey(courseMemberType)) {
-                                courseMembersMap.put(courseMemberType, new ArrayList<>());
-                            }
-
-                            courseMembersMap.get(courseMemberType).add(member);
+                        if (!courseMembersMap.containsKey(courseMemberType)) {
+                            courseMembersMap.put(courseMemberType, new ArrayList<>());
                         }
+
+                        courseMembersMap.get(courseMemberType).add(member);
                     }
                 }
 
-            } catch (URISyntaxException | IOException e) {
+            } catch (URISyntaxException e) {
                 e.printStackTrace();
                 return null;
             } catch (InterruptedException e) {
@@ -670,4 +548,17 @@ public class CourseService {
 
         return courseMembersMap;
     }
+
+    private static class CrawledFileRefTree {
+
+        private final FileRefTree fileRefTree;
+        private final long lastFullCrawl;
+
+        private CrawledFileRefTree(FileRefTree fileRefTree, long lastFullCrawl) {
+            this.fileRefTree = fileRefTree;
+            this.lastFullCrawl = lastFullCrawl;
+        }
+
+    }
+
 }
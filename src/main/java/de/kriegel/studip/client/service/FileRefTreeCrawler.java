@@ -0,0 +1,232 @@
+package de.kriegel.studip.client.service;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.kriegel.studip.client.config.Endpoints;
+import de.kriegel.studip.client.config.SubPaths;
+import de.kriegel.studip.client.content.model.data.FileRef;
+import de.kriegel.studip.client.content.model.data.Folder;
+import de.kriegel.studip.client.content.model.data.Id;
+import de.kriegel.studip.client.content.model.file.FileRefNode;
+import de.kriegel.studip.client.content.model.file.FileRefNodeListener;
+import de.kriegel.studip.client.content.model.file.FileRefTree;
+
+/**
+ * Crawls the folder structure of a course asynchronously. All subfolders of a folder are requested at once, the
+ * amount of requests in flight is bounded by the given {@link AsyncSemaphore}. The resulting {@link FileRefTree} is
+ * assembled after all requests of a folder completed, so the order of the children matches the order of the
+ * folder responses (file refs first, then subfolders).
+ * <p>
+ * If the tree of a previous crawl is given, subfolders whose chdate (as embedded in the parent's response) did not
+ * change since then are not requested again, their previously crawled subtree is reused instead. Likewise the file
+ * refs of an unchanged folder are taken over without falling back to the file endpoint.
+ * <p>
+ * An optional {@link FileRefNodeListener} receives every folder as soon as it has been fetched and its files as soon
+ * as they are resolved, so they can be processed while the rest of the tree is still being crawled.
+ *
+ * @author Josef
+ */
+class FileRefTreeCrawler {
+
+    private static final Logger log = LoggerFactory.getLogger(FileRefTreeCrawler.class);
+
+    private final BasicHttpClient httpClient;
+
+    private final AsyncSemaphore requestLimiter;
+
+    // folder nodes of the previous crawl, keyed by folder id
+    private final Map<Id, FileRefNode> previousFolderNodes = new HashMap<>();
+
+    private final FileRefNodeListener listener;
+
+    private final AtomicInteger fetchedFolders = new AtomicInteger();
+    private final AtomicInteger reusedFolders = new AtomicInteger();
+
+    FileRefTreeCrawler(BasicHttpClient httpClient, AsyncSemaphore requestLimiter, FileRefTree previousFileRefTree,
+            FileRefNodeListener listener) {
+        this.httpClient = httpClient;
+        this.requestLimiter = requestLimiter;
+        this.listener = listener;
+
+        if (previousFileRefTree != null && previousFileRefTree.getRoot().isDirectory()) {
+            indexFolderNodes(previousFileRefTree.getRoot());
+        }
+    }
+
+    CompletableFuture<FileRefTree> crawl(Id courseId) {
+        return getJson(SubPaths.API.toString()
+                + Endpoints.COURSE_TOP_FOLDER.toString().replace(":course_id", courseId.asHex()))
+                .thenApply(Folder::fromJson).thenCompose(topFolder -> {
+                    FileRefTree fileRefTree = new FileRefTree(topFolder);
+
+                    return crawlFolder(fileRefTree.getRoot(), fileRefTree, "").thenApply(v -> {
+                        log.debug("Crawled course " + courseId + ": fetched " + (fetchedFolders.get() + 1)
+                                + " folders, reused " + reusedFolders.get() + " unchanged folders");
+                        return fileRefTree;
+                    });
+                });
+    }
+
+    private void indexFolderNodes(FileRefNode node) {
+        previousFolderNodes.put(node.getFolder().getId(), node);
+
+        for (FileRefNode child : node.getChildren()) {
+            if (child.isDirectory()) {
+                indexFolderNodes(child);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> crawlFolder(FileRefNode node, FileRefTree fileRefTree, String path) {
+        Folder folder = node.getFolder();
+
+        // file refs of a folder whose metadata did not change are taken over from the previous crawl
+        Map<Id, FileRef> previousFileRefs = new HashMap<>();
+        FileRefNode previousNode = previousFolderNodes.get(folder.getId());
+
+        if (previousNode != null && previousNode.getFolder().getChdate() == folder.getChdate()
+                && previousNode.getFolder().getFileRefs().equals(folder.getFileRefs())) {
+            for (FileRefNode child : previousNode.getChildren()) {
+                if (!child.isDirectory()) {
+                    previousFileRefs.put(child.getFileRef().getId(), child.getFileRef());
+                }
+            }
+        }
+
+        List<CompletableFuture<FileRef>> fileRefs = new ArrayList<>();
+
+        for (Id fileRefId : folder.getFileRefs()) {
+            FileRef embeddedFileRef = folder.getEmbeddedFileRef(fileRefId);
+
+            if (embeddedFileRef == null) {
+                embeddedFileRef = previousFileRefs.get(fileRefId);
+            }
+
+            if (embeddedFileRef != null) {
+                fileRefs.add(CompletableFuture.completedFuture(embeddedFileRef));
+            } else {
+                // fields are missing in the folder response, fall back to the file endpoint
+                log.debug("Fetching incomplete FileRef " + fileRefId + " of folder " + folder.getName());
+                fileRefs.add(getFileRefFromId(fileRefId));
+            }
+        }
+
+        // hand the files of this folder on as soon as they are resolved, independent of the subfolders
+        CompletableFuture<List<FileRefNode>> fileRefNodes = CompletableFuture
+                .allOf(fileRefs.toArray(new CompletableFuture<?>[fileRefs.size()])).thenApply(v -> {
+                    List<FileRefNode> nodes = new ArrayList<>();
+
+                    for (CompletableFuture<FileRef> fileRef : fileRefs) {
+                        FileRefNode fileRefNode = fileRefTree.createFileNode(fileRef.join());
+
+                        nodes.add(fileRefNode);
+                        publish(fileRefNode, FileRefTree.getChildPath(path, fileRefNode));
+                    }
+
+                    return nodes;
+                });
+
+        // request all siblings at once, each subtree continues as soon as its folder arrived
+        List<CompletableFuture<FileRefNode>> subfolders = new ArrayList<>();
+
+        for (Id folderId : folder.getSubfolders()) {
+            FileRefNode previousSubfolderNode = previousFolderNodes.get(folderId);
+            Long subfolderChdate = folder.getSubfolderChdate(folderId);
+
+            if (previousSubfolderNode != null && subfolderChdate != null
+                    && previousSubfolderNode.getFolder().getChdate() == subfolderChdate) {
+                // unchanged since the previous crawl, skip the whole subtree
+                reusedFolders.incrementAndGet();
+                publishSubtree(previousSubfolderNode, FileRefTree.getChildPath(path, previousSubfolderNode));
+                subfolders.add(CompletableFuture.completedFuture(previousSubfolderNode));
+                continue;
+            }
+
+            fetchedFolders.incrementAndGet();
+            subfolders.add(getFolderFromId(folderId).thenCompose(subfolder -> {
+                FileRefNode subfolderNode = fileRefTree.createFileNode(subfolder);
+                String subfolderPath = FileRefTree.getChildPath(path, subfolderNode);
+
+                publish(subfolderNode, subfolderPath);
+
+                return crawlFolder(subfolderNode, fileRefTree, subfolderPath).thenApply(v -> subfolderNode);
+            }));
+        }
+
+        List<CompletableFuture<?>> all = new ArrayList<>(subfolders);
+        all.add(fileRefNodes);
+
+        return CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[all.size()])).thenRun(() -> {
+            try {
+                for (FileRefNode fileRefNode : fileRefNodes.join()) {
+                    node.addFileRefNode(fileRefNode);
+                }
+
+                for (CompletableFuture<FileRefNode> subfolderNode : subfolders) {
+                    node.addFileRefNode(subfolderNode.join());
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private void publish(FileRefNode node, String path) {
+        if (listener == null) {
+            return;
+        }
+
+        try {
+            listener.onFileRefNode(node, path);
+        } catch (RuntimeException e) {
+            log.error("FileRefNodeListener failed for " + path, e);
+        }
+    }
+
+    private void publishSubtree(FileRefNode node, String path) {
+        publish(node, path);
+
+        if (node.isDirectory()) {
+            for (FileRefNode child : node.getChildren()) {
+                publishSubtree(child, FileRefTree.getChildPath(path, child));
+            }
+        }
+    }
+
+    private CompletableFuture<FileRef> getFileRefFromId(Id id) {
+        return getJson(SubPaths.API + Endpoints.FILE.getPath().replace(":file_id", id.asHex()))
+                .thenApply(FileRef::fromJson);
+    }
+
+    private CompletableFuture<Folder> getFolderFromId(Id id) {
+        return getJson(SubPaths.API + Endpoints.FOLDER.getPath().replace(":folder_id", id.asHex()))
+                .thenApply(Folder::fromJson);
+    }
+
+    private CompletableFuture<JSONObject> getJson(String subpath) {
+        return requestLimiter.withPermit(new Supplier<CompletableFuture<JSONObject>>() {
+            @Override
+            public CompletableFuture<JSONObject> get() {
+                try {
+                    return httpClient.getJson(subpath);
+                } catch (URISyntaxException e) {
+                    CompletableFuture<JSONObject> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(e);
+                    return failed;
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,182 @@
+package de.kriegel.studip.client.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import de.kriegel.studip.client.config.RateLimit;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Request rate and bandwidth limits of a single host, each a {@link TokenBucket}, together with the time requests
+ * and response bodies have been held back.
+ *
+ * @author Josef
+ */
+public class HostRateLimiter {
+
+	// notified before the reading thread pauses, so the pause is not taken for a stalled transfer
+	private static final ThreadLocal<LongConsumer> pauseListener = new ThreadLocal<>();
+
+	private final String host;
+
+	// null if the respective limit is disabled
+	private final TokenBucket requestBucket;
+	private final TokenBucket bandwidthBucket;
+	private final long bandwidthBurstBytes;
+
+	private final AtomicLong throttledRequests = new AtomicLong();
+	private final AtomicLong requestThrottleNanos = new AtomicLong();
+	private final AtomicLong bandwidthThrottleNanos = new AtomicLong();
+
+	HostRateLimiter(String host, RateLimit rateLimit) {
+		this.host = host;
+
+		requestBucket = rateLimit.getRequestsPerSecond() > 0
+				? new TokenBucket(rateLimit.getRequestsPerSecond(), rateLimit.getRequestBurst())
+				: null;
+		bandwidthBucket = rateLimit.getBytesPerSecond() > 0
+				? new TokenBucket(rateLimit.getBytesPerSecond(), rateLimit.getBandwidthBurstBytes())
+				: null;
+		bandwidthBurstBytes = rateLimit.getBandwidthBurstBytes();
+	}
+
+	/**
+	 * Takes a token for a request.
+	 *
+	 * @return time in nanoseconds the request has to be delayed
+	 */
+	long reserveRequest() {
+		if (requestBucket == null) {
+			return 0;
+		}
+
+		long delayNanos = requestBucket.reserve(1);
+
+		if (delayNanos > 0) {
+			throttledRequests.incrementAndGet();
+			requestThrottleNanos.addAndGet(delayNanos);
+		}
+
+		return delayNanos;
+	}
+
+	/**
+	 * @param body
+	 * @return the body, which pauses reading whenever the bandwidth of the host is used up
+	 */
+	ResponseBody throttle(ResponseBody body) {
+		return throttle(body, null);
+	}
+
+	/**
+	 * @param body
+	 * @param permit
+	 *            of the body, lent during each pause and taken back before the next slice is read, null if the body
+	 *            holds no permit
+	 * @return the body, which pauses reading whenever the bandwidth of the host is used up
+	 */
+	ResponseBody throttle(ResponseBody body, BulkPermit permit) {
+		if (bandwidthBucket == null || body == null) {
+			return body;
+		}
+
+		Source source = new ForwardingSource(body.source()) {
+			@Override
+			public long read(Buffer sink, long byteCount) throws IOException {
+				if (permit != null) {
+					permit.takeBack();
+				}
+
+				// never take more than a burst at once, so the pauses stay short
+				long read = super.read(sink, Math.min(byteCount, bandwidthBurstBytes));
+
+				if (read > 0) {
+					pause(bandwidthBucket.reserve(read), permit);
+				}
+
+				return read;
+			}
+		};
+
+		return ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source));
+	}
+
+	private void pause(long delayNanos, BulkPermit permit) throws InterruptedIOException {
+		if (delayNanos <= 0) {
+			return;
+		}
+
+		bandwidthThrottleNanos.addAndGet(delayNanos);
+
+		if (permit != null) {
+			// metadata and other downloads must not wait for a transfer which is not even reading
+			permit.lend();
+		}
+
+		LongConsumer listener = pauseListener.get();
+
+		if (listener != null) {
+			listener.accept(delayNanos);
+		}
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(delayNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while throttling " + host);
+		}
+	}
+
+	/**
+	 * @param listener
+	 *            receives the time in nanoseconds the current thread is about to pause reading a response body, null
+	 *            to remove the listener of the current thread
+	 */
+	public static void setPauseListener(LongConsumer listener) {
+		if (listener == null) {
+			pauseListener.remove();
+		} else {
+			pauseListener.set(listener);
+		}
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return amount of requests which had to wait for a token
+	 */
+	public long getThrottledRequests() {
+		return throttledRequests.get();
+	}
+
+	/**
+	 * @return total time requests have been delayed in milliseconds
+	 */
+	public long getRequestThrottleMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(requestThrottleNanos.get());
+	}
+
+	/**
+	 * @return total time reading response bodies has been paused in milliseconds
+	 */
+	public long getBandwidthThrottleMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(bandwidthThrottleNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return "HostRateLimiter " + host + ": throttledRequests: " + getThrottledRequests()
+				+ ", requestThrottleMillis: " + getRequestThrottleMillis() + ", bandwidthThrottleMillis: "
+				+ getBandwidthThrottleMillis();
+	}
+
+}
@@ -0,0 +1,116 @@
+package de.kriegel.studip.client.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters collected by the {@link BasicHttpClient} while it is running.
+ *
+ * @author Josef
+ */
+public class HttpClientStatistics {
+
+	private final AtomicLong newConnections = new AtomicLong();
+	private final AtomicLong reusedConnections = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong retryGiveUps = new AtomicLong();
+	private final AtomicLong coalescedRequests = new AtomicLong();
+	private final AtomicLong notModifiedResponses = new AtomicLong();
+	private final AtomicLong cachedResponses = new AtomicLong();
+
+	void connectionAcquired(boolean isNew) {
+		if (isNew) {
+			newConnections.incrementAndGet();
+		} else {
+			reusedConnections.incrementAndGet();
+		}
+	}
+
+	void retried() {
+		retries.incrementAndGet();
+	}
+
+	void retryGivenUp() {
+		retryGiveUps.incrementAndGet();
+	}
+
+	void requestCoalesced() {
+		coalescedRequests.incrementAndGet();
+	}
+
+	void notModified() {
+		notModifiedResponses.incrementAndGet();
+	}
+
+	void servedFromCache() {
+		cachedResponses.incrementAndGet();
+	}
+
+	/**
+	 * @return amount of requests which had to open a new TCP (and TLS) connection
+	 */
+	public long getNewConnections() {
+		return newConnections.get();
+	}
+
+	/**
+	 * @return amount of requests which were served over a pooled keep-alive connection
+	 */
+	public long getReusedConnections() {
+		return reusedConnections.get();
+	}
+
+	/**
+	 * @return share of requests served over a pooled connection, between 0 and 1
+	 */
+	public double getConnectionReuseRatio() {
+		long reused = reusedConnections.get();
+		long total = reused + newConnections.get();
+
+		return total == 0 ? 0 : reused / (double) total;
+	}
+
+	/**
+	 * @return amount of GET requests which have been sent again after a transient failure
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return amount of GET requests which still failed transiently when their retries or deadline were used up
+	 */
+	public long getRetryGiveUps() {
+		return retryGiveUps.get();
+	}
+
+	/**
+	 * @return amount of json requests which joined an identical request in flight instead of being sent
+	 */
+	public long getCoalescedRequests() {
+		return coalescedRequests.get();
+	}
+
+	/**
+	 * @return amount of json requests answered with 304 Not Modified and served from the revalidation cache
+	 */
+	public long getNotModifiedResponses() {
+		return notModifiedResponses.get();
+	}
+
+	/**
+	 * @return amount of requests answered with a possibly stale cached response while offline or because the
+	 *         server was unreachable
+	 */
+	public long getCachedResponses() {
+		return cachedResponses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "HttpClientStatistics: newConnections: " + getNewConnections() + ", reusedConnections: "
+				+ getReusedConnections() + ", retries: " + getRetries() + ", retryGiveUps: " + getRetryGiveUps()
+				+ ", coalescedRequests: " + getCoalescedRequests() + ", notModifiedResponses: "
+				+ getNotModifiedResponses() + ", cachedResponses: " + getCachedResponses();
+	}
+
+}
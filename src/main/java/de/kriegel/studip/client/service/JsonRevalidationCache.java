@@ -0,0 +1,100 @@
+package de.kriegel.studip.client.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Parsed json responses together with their ETag and Last-Modified validators, so they can be revalidated with a
+ * conditional request. The least recently used entries are evicted once more than the maximum amount is stored.
+ *
+ * @author Josef
+ */
+class JsonRevalidationCache {
+
+	private final Map<String, CachedJson> entries;
+
+	JsonRevalidationCache(int maxEntries) {
+		entries = new LinkedHashMap<String, CachedJson>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedJson> eldest) {
+				return size() > maxEntries;
+			}
+
+		};
+	}
+
+	synchronized CachedJson get(String url) {
+		return entries.get(url);
+	}
+
+	/**
+	 * Stores the parsed body of the response, if the server sent any validator. Otherwise an outdated entry is
+	 * dropped.
+	 *
+	 * @param url
+	 * @param response
+	 * @param json
+	 */
+	synchronized void put(String url, Response response, JSONObject json) {
+		String etag = response.header("ETag");
+		String lastModified = response.header("Last-Modified");
+
+		if (etag == null && lastModified == null) {
+			entries.remove(url);
+		} else {
+			entries.put(url, new CachedJson(etag, lastModified, json));
+		}
+	}
+
+	synchronized void remove(String url) {
+		entries.remove(url);
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	static class CachedJson {
+
+		private final String etag;
+		private final String lastModified;
+		private final JSONObject json;
+
+		private CachedJson(String etag, String lastModified, JSONObject json) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.json = json;
+		}
+
+		/**
+		 * @param request
+		 * @return the request with the validators of this entry
+		 */
+		Request addConditions(Request request) {
+			Request.Builder builder = request.newBuilder();
+
+			if (etag != null) {
+				builder.header("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				builder.header("If-Modified-Since", lastModified);
+			}
+
+			return builder.build();
+		}
+
+		JSONObject getJson() {
+			return json;
+		}
+
+	}
+
+}
@@ -0,0 +1,192 @@
+package de.kriegel.studip.client.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.HttpUrl;
+
+/**
+ * Thread safe cookie store keyed by the domain of the cookies. If a file is given, the cookies, including session
+ * cookies, are written to it whenever they change and loaded again on startup, so the session with the server
+ * survives a restart of the client. The file is readable by its owner only, where the file system supports it.
+ *
+ * @author Josef
+ */
+class PersistentCookieJar implements CookieJar {
+
+	private static final Logger log = LoggerFactory.getLogger(PersistentCookieJar.class);
+
+	// cookies by domain, each domain by name, domain and path of the cookie
+	private final Map<String, Map<String, Cookie>> cookiesByDomain = new ConcurrentHashMap<>();
+
+	private final File file;
+
+	/**
+	 * @param file
+	 *            to persist the cookies in or null to keep them in memory only
+	 */
+	PersistentCookieJar(File file) {
+		this.file = file;
+
+		if (file != null && file.isFile()) {
+			load();
+		}
+	}
+
+	@Override
+	public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+		boolean changed = false;
+		long now = System.currentTimeMillis();
+
+		for (Cookie cookie : cookies) {
+			Map<String, Cookie> domainCookies = cookiesByDomain.computeIfAbsent(cookie.domain(),
+					domain -> new ConcurrentHashMap<>());
+
+			if (cookie.expiresAt() < now) {
+				// the server deletes a cookie by sending it already expired
+				changed |= domainCookies.remove(getKey(cookie)) != null;
+			} else {
+				changed |= !cookie.equals(domainCookies.put(getKey(cookie), cookie));
+			}
+		}
+
+		if (changed) {
+			save();
+		}
+	}
+
+	@Override
+	public List<Cookie> loadForRequest(HttpUrl url) {
+		List<Cookie> cookies = new ArrayList<>();
+		long now = System.currentTimeMillis();
+
+		// the host itself and all parent domains
+		for (String domain = url.host(); domain != null; domain = getParentDomain(domain)) {
+			Map<String, Cookie> domainCookies = cookiesByDomain.get(domain);
+
+			if (domainCookies == null) {
+				continue;
+			}
+
+			for (Iterator<Cookie> iterator = domainCookies.values().iterator(); iterator.hasNext();) {
+				Cookie cookie = iterator.next();
+
+				if (cookie.expiresAt() < now) {
+					iterator.remove();
+				} else if (cookie.matches(url)) {
+					cookies.add(cookie);
+				}
+			}
+		}
+
+		return cookies;
+	}
+
+	private static String getKey(Cookie cookie) {
+		return cookie.name() + "@" + cookie.domain() + cookie.path();
+	}
+
+	private static String getParentDomain(String domain) {
+		int dot = domain.indexOf('.');
+
+		return dot < 0 || dot == domain.length() - 1 ? null : domain.substring(dot + 1);
+	}
+
+	private void load() {
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+
+				if (tab < 0) {
+					continue;
+				}
+
+				String domain = line.substring(0, tab);
+				Cookie cookie = Cookie.parse(new HttpUrl.Builder().scheme("https").host(domain).build(),
+						line.substring(tab + 1));
+
+				if (cookie != null && cookie.expiresAt() >= System.currentTimeMillis()) {
+					cookiesByDomain.computeIfAbsent(cookie.domain(), d -> new ConcurrentHashMap<>())
+							.put(getKey(cookie), cookie);
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			log.warn("Could not load cookies from " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Writes all cookies to a temporary file which then replaces the cookie file, so a crash never leaves a
+	 * truncated file behind.
+	 */
+	private synchronized void save() {
+		if (file == null) {
+			return;
+		}
+
+		File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+
+		try {
+			createPrivateFile(tmpFile);
+
+			try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+				for (Map<String, Cookie> domainCookies : cookiesByDomain.values()) {
+					for (Cookie cookie : domainCookies.values()) {
+						writer.write(cookie.domain() + "\t" + cookie.toString());
+						writer.newLine();
+					}
+				}
+			}
+
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			log.warn("Could not save cookies to " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Creates an empty file only its owner can read and write. The permissions are kept when the file replaces the
+	 * cookie file.
+	 */
+	private static void createPrivateFile(File file) throws IOException {
+		Files.deleteIfExists(file.toPath());
+
+		if (file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(file.toPath(), PosixFilePermissions
+					.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+		} else {
+			Files.createFile(file.toPath());
+			file.setReadable(false, false);
+			file.setWritable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(true, true);
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+package de.kriegel.studip.client.service;
+
+/**
+ * Priority class of a request. Waiting requests are started in the order of their class, so a long queue of
+ * downloads never delays metadata requests. Bulk requests may only use a share of the concurrency limit.
+ *
+ * @author Josef
+ */
+public enum RequestPriority {
+
+	/**
+	 * Requests a user is waiting for, e.g. the login
+	 */
+	INTERACTIVE,
+
+	/**
+	 * Small API requests like courses, folders and news
+	 */
+	METADATA,
+
+	/**
+	 * File downloads
+	 */
+	BULK
+
+}
@@ -0,0 +1,96 @@
+package de.kriegel.studip.client.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import de.kriegel.studip.client.config.HttpClientConfig;
+
+/**
+ * Decides which failed GET requests are sent again and when. Delays grow exponentially with full jitter, so clients
+ * which failed at the same time do not retry at the same time. A Retry-After header of the server takes precedence.
+ *
+ * @author Josef
+ */
+class RetryPolicy {
+
+	private final int maxRetries;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	RetryPolicy(HttpClientConfig config) {
+		this.maxRetries = config.getMaxRetries();
+		this.baseDelayMillis = config.getRetryBaseDelayMillis();
+		this.maxDelayMillis = config.getRetryMaxDelayMillis();
+	}
+
+	int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param code
+	 * @return true for responses of an overloaded or temporarily failing server
+	 */
+	boolean isRetryable(int code) {
+		return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+	}
+
+	/**
+	 * @param e
+	 * @return true for connection resets, timeouts and connections closed by the server
+	 */
+	boolean isRetryable(IOException e) {
+		return e instanceof SocketException || e instanceof InterruptedIOException || e instanceof EOFException;
+	}
+
+	/**
+	 * @param retry
+	 *            number of the retry, starting at 0
+	 * @param retryAfter
+	 *            value of the Retry-After header or null
+	 * @return time to wait before the retry
+	 */
+	long getDelayMillis(int retry, String retryAfter) {
+		long requested = parseRetryAfterMillis(retryAfter);
+
+		if (requested >= 0) {
+			return requested;
+		}
+
+		long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 20));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * @param retryAfter
+	 *            delay in seconds or a HTTP date
+	 * @return delay in milliseconds or -1, if there is no valid value
+	 */
+	static long parseRetryAfterMillis(String retryAfter) {
+		if (retryAfter == null || retryAfter.trim().isEmpty()) {
+			return -1;
+		}
+
+		String value = retryAfter.trim();
+
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+			// not in seconds, try a date
+		}
+
+		try {
+			ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+}
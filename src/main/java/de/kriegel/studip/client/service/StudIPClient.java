@@ -1,15 +1,12 @@
 package de.kriegel.studip.client.service;
 
 import java.net.URI;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.kriegel.studip.client.auth.Credentials;
+import de.kriegel.studip.client.config.HttpClientConfig;
 
 public class StudIPClient {
 
@@ -24,13 +21,14 @@ public class StudIPClient {
 	private final ForumService forumService;
 	private final UserService userService;
 
-	private final ExecutorService executorService;
-
 	public StudIPClient(URI baseUri, Credentials credentials) {
+		this(baseUri, credentials, new HttpClientConfig());
+	}
+
+	public StudIPClient(URI baseUri, Credentials credentials, HttpClientConfig httpClientConfig) {
 		this.baseUri = baseUri;
-		executorService =  new ThreadPoolExecutor(4,4, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
 
-		this.httpClient = new BasicHttpClient(baseUri, credentials, executorService);
+		this.httpClient = new BasicHttpClient(baseUri, credentials, httpClientConfig);
 
 		this.authService = new AuthService(httpClient);
 		this.contactService = new ContactService(httpClient);
@@ -41,10 +39,25 @@ public class StudIPClient {
 	
 	public void shutdown() {
 		log.info("Shutting down StudIPClient");
-		executorService.shutdown();
-		log.info("Shut down executor service");
+		httpClient.close();
+		log.info("Shut down http client");
 	}
 	
+	public HttpClientStatistics getHttpClientStatistics() {
+		return httpClient.getStatistics();
+	}
+
+	/**
+	 * @see BasicHttpClient#setOffline(boolean)
+	 */
+	public void setOffline(boolean offline) {
+		httpClient.setOffline(offline);
+	}
+
+	public boolean isOffline() {
+		return httpClient.isOffline();
+	}
+
 	public AuthService getAuthService() {
 		return authService;
 	}
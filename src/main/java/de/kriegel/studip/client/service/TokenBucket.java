@@ -0,0 +1,49 @@
+package de.kriegel.studip.client.service;
+
+/**
+ * Token bucket which hands out its tokens in advance: a reservation always succeeds and returns how long the caller
+ * has to wait until the tokens would have been available. The caller decides how to wait, so nobody has to hold a
+ * lock or block a thread while the bucket refills.
+ *
+ * @author Josef
+ */
+class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+
+	// negative while reservations are ahead of the refill
+	private double tokens;
+	private long lastRefillNanos;
+
+	/**
+	 * @param tokensPerSecond
+	 * @param capacity
+	 *            maximum amount of tokens saved up while idle
+	 */
+	TokenBucket(double tokensPerSecond, double capacity) {
+		assert tokensPerSecond > 0;
+
+		this.tokensPerNano = tokensPerSecond / 1000000000;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.lastRefillNanos = System.nanoTime();
+	}
+
+	/**
+	 * Takes the tokens right away, even if there are not enough.
+	 *
+	 * @param amount
+	 * @return time in nanoseconds the caller has to wait before using the tokens, 0 if they were available
+	 */
+	synchronized long reserve(long amount) {
+		long now = System.nanoTime();
+
+		tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+		lastRefillNanos = now;
+		tokens -= amount;
+
+		return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+	}
+
+}
@@ -0,0 +1,31 @@
+package de.kriegel.studip.client.content.model.data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+public class FileRefTest {
+
+	@Test
+	public void parsesSizesAboveTwoGibibytes() throws Exception {
+		JSONObject json = (JSONObject) new JSONParser().parse("{\"id\":\"6e6f002856c3a0480a36bd1d97d67c70\","
+				+ "\"file_id\":\"6e6f002856c3a0480a36bd1d97d67c71\",\"name\":\"lecture.mp4\",\"size\":5368709120,"
+				+ "\"chdate\":1540000000}");
+
+		FileRef fileRef = FileRef.fromJson(json);
+
+		assertEquals(5368709120L, fileRef.getSize());
+		assertEquals(1540000000L, fileRef.getChdate());
+	}
+
+	@Test
+	public void parsesSizesGivenAsString() throws Exception {
+		JSONObject json = (JSONObject) new JSONParser()
+				.parse("{\"id\":\"6e6f002856c3a0480a36bd1d97d67c70\",\"size\":\"" + (Integer.MAX_VALUE + 1L) + "\"}");
+
+		assertEquals(Integer.MAX_VALUE + 1L, FileRef.fromJson(json).getSize());
+	}
+
+}
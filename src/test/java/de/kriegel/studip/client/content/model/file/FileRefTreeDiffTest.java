@@ -0,0 +1,200 @@
+package de.kriegel.studip.client.content.model.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.kriegel.studip.client.content.model.data.FileRef;
+import de.kriegel.studip.client.content.model.data.Folder;
+import de.kriegel.studip.client.content.model.data.Id;
+
+public class FileRefTreeDiffTest {
+
+	@Test
+	public void equalTreesHaveEqualDigestsAndNoDifferences() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)), file(11, "b.pdf", 200, 1));
+		FileRefTree current = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)), file(11, "b.pdf", 200, 1));
+
+		assertArrayEquals(previous.getRoot().getDigest(), current.getRoot().getDigest());
+		assertTrue(current.diff(previous).isEmpty());
+	}
+
+	@Test
+	public void changeOnlyAltersTheDigestsOfItsAncestors() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)),
+				folder(3, "Uebung", file(11, "b.pdf", 200, 1)));
+		FileRefTree current = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 2)),
+				folder(3, "Uebung", file(11, "b.pdf", 200, 1)));
+
+		assertFalse(Arrays.equals(previous.getRoot().getDigest(), current.getRoot().getDigest()));
+		assertFalse(Arrays.equals(child(previous, 0).getDigest(), child(current, 0).getDigest()));
+		assertArrayEquals(child(previous, 1).getDigest(), child(current, 1).getDigest());
+	}
+
+	@Test
+	public void withoutPreviousTreeEverythingIsAdded() throws Exception {
+		FileRefTree current = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)));
+
+		FileRefTreeDiff diff = current.diff(null);
+
+		assertEquals(Arrays.asList("Vorlesung", "Vorlesung/a.pdf"), currentPaths(diff.getAdded()));
+		assertTrue(diff.getRemoved().isEmpty());
+		assertTrue(diff.getMoved().isEmpty());
+		assertTrue(diff.getChanged().isEmpty());
+	}
+
+	@Test
+	public void addedFile() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)));
+		FileRefTree current = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1), file(11, "b.pdf", 200, 1)));
+
+		FileRefTreeDiff diff = current.diff(previous);
+
+		assertEquals(Arrays.asList("Vorlesung/b.pdf"), currentPaths(diff.getAdded()));
+		assertNull(diff.getAdded().get(0).getPreviousNode());
+		assertTrue(diff.getRemoved().isEmpty());
+		assertTrue(diff.getMoved().isEmpty());
+		assertTrue(diff.getChanged().isEmpty());
+	}
+
+	@Test
+	public void removedFolderWithItsFiles() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)), file(11, "b.pdf", 200, 1));
+		FileRefTree current = tree(file(11, "b.pdf", 200, 1));
+
+		FileRefTreeDiff diff = current.diff(previous);
+
+		assertEquals(Arrays.asList("Vorlesung", "Vorlesung/a.pdf"), previousPaths(diff.getRemoved()));
+		assertNull(diff.getRemoved().get(0).getCurrentNode());
+		assertTrue(diff.getAdded().isEmpty());
+		assertTrue(diff.getMoved().isEmpty());
+	}
+
+	@Test
+	public void changedFile() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1), file(11, "b.pdf", 200, 1)));
+		FileRefTree current = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 2), file(11, "b.pdf", 300, 1)));
+
+		FileRefTreeDiff diff = current.diff(previous);
+
+		assertEquals(Arrays.asList("Vorlesung/a.pdf", "Vorlesung/b.pdf"), currentPaths(diff.getChanged()));
+		assertTrue(diff.getAdded().isEmpty());
+		assertTrue(diff.getRemoved().isEmpty());
+		assertTrue(diff.getMoved().isEmpty());
+	}
+
+	@Test
+	public void renamedFile() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)));
+		FileRefTree current = tree(folder(2, "Vorlesung", file(10, "Folien 1.pdf", 100, 1)));
+
+		FileRefTreeDiff diff = current.diff(previous);
+
+		assertEquals(1, diff.getMoved().size());
+		assertEquals("Vorlesung/a.pdf", diff.getMoved().get(0).getPreviousPath());
+		assertEquals("Vorlesung/Folien 1.pdf", diff.getMoved().get(0).getCurrentPath());
+		assertTrue(diff.getAdded().isEmpty());
+		assertTrue(diff.getRemoved().isEmpty());
+		assertTrue(diff.getChanged().isEmpty());
+	}
+
+	@Test
+	public void fileMovedIntoAnotherFolder() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", file(10, "a.pdf", 100, 1)), folder(3, "Uebung"));
+		FileRefTree current = tree(folder(2, "Vorlesung"), folder(3, "Uebung", file(10, "a.pdf", 100, 1)));
+
+		FileRefTreeDiff diff = current.diff(previous);
+
+		assertEquals(1, diff.getMoved().size());
+		assertEquals("Vorlesung/a.pdf", diff.getMoved().get(0).getPreviousPath());
+		assertEquals("Uebung/a.pdf", diff.getMoved().get(0).getCurrentPath());
+		assertTrue(diff.getAdded().isEmpty());
+		assertTrue(diff.getRemoved().isEmpty());
+	}
+
+	@Test
+	public void renamedFolderMovesItsDescendants() throws Exception {
+		FileRefTree previous = tree(folder(2, "Vorlesung", folder(3, "Woche 1", file(10, "a.pdf", 100, 1))));
+		FileRefTree current = tree(folder(2, "Vorlesungen", folder(3, "Woche 1", file(10, "a.pdf", 100, 2))));
+
+		FileRefTreeDiff diff = current.diff(previous);
+
+		assertEquals(Arrays.asList("Vorlesung", "Vorlesung/Woche 1", "Vorlesung/Woche 1/a.pdf"),
+				previousPaths(diff.getMoved()));
+		assertEquals(Arrays.asList("Vorlesungen", "Vorlesungen/Woche 1", "Vorlesungen/Woche 1/a.pdf"),
+				currentPaths(diff.getMoved()));
+		assertTrue(diff.getMoved().get(0).isDirectory());
+		assertEquals(Arrays.asList("Vorlesungen/Woche 1/a.pdf"), currentPaths(diff.getChanged()));
+		assertTrue(diff.getAdded().isEmpty());
+		assertTrue(diff.getRemoved().isEmpty());
+	}
+
+	@Test
+	public void fileReplacedByFolderWithTheSameIdIsRemovedAndAdded() throws Exception {
+		FileRefTree previous = tree(file(10, "a", 100, 1));
+		FileRefTree current = tree(folder(10, "a"));
+
+		FileRefTreeDiff diff = current.diff(previous);
+
+		assertEquals(Arrays.asList("a"), previousPaths(diff.getRemoved()));
+		assertEquals(Arrays.asList("a"), currentPaths(diff.getAdded()));
+		assertTrue(diff.getMoved().isEmpty());
+	}
+
+	private static FileRefTree tree(FileRefNode... children) throws Exception {
+		return new FileRefTree(folder(1, "Top", children));
+	}
+
+	private static FileRefNode child(FileRefTree tree, int index) {
+		return tree.getRoot().getChildren().get(index);
+	}
+
+	private static FileRefNode folder(int id, String name, FileRefNode... children) throws Exception {
+		FileRefNode node = new FileRefNode(new Folder(true, true, false, id(id), null, null, null, "course",
+				"StandardFolder", name, new ArrayList<>(), "", 0, 0, new ArrayList<>(), new ArrayList<>()));
+
+		for (FileRefNode child : children) {
+			node.addFileRefNode(child);
+		}
+
+		return node;
+	}
+
+	private static FileRefNode file(int id, String name, int size, long chdate) {
+		return new FileRefNode(new FileRef(id(id), id(1000 + id), null, 0, "", "", null, name, 0, chdate, true, true,
+				false, false, size, "application/pdf", "disk"));
+	}
+
+	private static Id id(int n) {
+		return new Id(String.format("%032x", n));
+	}
+
+	private static List<String> previousPaths(List<FileRefTreeDiff.Entry> entries) {
+		List<String> paths = new ArrayList<>();
+
+		for (FileRefTreeDiff.Entry entry : entries) {
+			paths.add(entry.getPreviousPath());
+		}
+
+		return paths;
+	}
+
+	private static List<String> currentPaths(List<FileRefTreeDiff.Entry> entries) {
+		List<String> paths = new ArrayList<>();
+
+		for (FileRefTreeDiff.Entry entry : entries) {
+			paths.add(entry.getCurrentPath());
+		}
+
+		return paths;
+	}
+
+}
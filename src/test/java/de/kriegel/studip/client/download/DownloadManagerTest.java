@@ -0,0 +1,157 @@
+package de.kriegel.studip.client.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.kriegel.studip.client.auth.Credentials;
+import de.kriegel.studip.client.content.model.data.FileRef;
+import de.kriegel.studip.client.content.model.data.Id;
+import de.kriegel.studip.client.service.BasicHttpClient;
+
+public class DownloadManagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void segmentsOfFilesAboveTwoGibibytes() {
+        long size = 5L * 1024 * 1024 * 1024 + 1;
+
+        long segmentLength = DownloadManager.getSegmentLength(size, 4);
+        long segments = (size + segmentLength - 1) / segmentLength;
+
+        assertEquals(0, segmentLength % ChunkedDigest.CHUNK_SIZE);
+        assertTrue(segmentLength > Integer.MAX_VALUE / 2);
+        assertEquals(4, segments);
+        assertTrue(size - (segments - 1) * segmentLength > 0);
+    }
+
+    @Test
+    public void segmentLengthIsRoundedUpToWholeChunks() {
+        long chunk = ChunkedDigest.CHUNK_SIZE;
+
+        assertEquals(chunk, DownloadManager.getSegmentLength(1, 4));
+        assertEquals(4 * chunk, DownloadManager.getSegmentLength(16 * chunk, 4));
+        assertEquals(5 * chunk, DownloadManager.getSegmentLength(17 * chunk, 4));
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentSegmentedDownloadsDoNotWaitForEachOthersPermits() throws Exception {
+        Map<String, byte[]> files = new ConcurrentHashMap<>();
+        HttpServer server = startRangeServer(files);
+
+        // the default limiter allows two downloads at once, both segmented downloads start at the same time
+        BasicHttpClient httpClient = new BasicHttpClient(
+                URI.create("http://127.0.0.1:" + server.getAddress().getPort()), new Credentials("user", "password"));
+        DownloadManager downloadManager = new DownloadManager(null, httpClient, temporaryFolder.getRoot().toPath());
+        downloadManager.setSegmentedDownloadThreshold(1024 * 1024);
+        downloadManager.getDownloadScheduler().setWorkers(2);
+
+        try {
+            DownloadJob[] jobs = new DownloadJob[2];
+
+            for (int i = 0; i < jobs.length; i++) {
+                byte[] content = new byte[2 * ChunkedDigest.CHUNK_SIZE + 1024 * 1024];
+                new Random(i).nextBytes(content);
+
+                FileRef fileRef = fileRef(i + 1, "file" + i + ".bin", content.length);
+                files.put(fileRef.getId().asHex(), content);
+
+                jobs[i] = downloadManager.submitDownload(null, fileRef,
+                        new File(temporaryFolder.getRoot(), fileRef.getName()));
+            }
+
+            for (int i = 0; i < jobs.length; i++) {
+                File file = jobs[i].getFuture().get(30, TimeUnit.SECONDS);
+
+                assertArrayEquals(files.get(jobs[i].getFileRef().getId().asHex()), Files.readAllBytes(file.toPath()));
+            }
+
+            assertEquals(0, httpClient.getConcurrencyLimiter().getInFlight());
+        } finally {
+            downloadManager.close();
+            httpClient.close();
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Serves the given files by id with support for single ranges. Every response is delayed a little, so
+     * concurrent requests really overlap.
+     */
+    private static HttpServer startRangeServer(Map<String, byte[]> files) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            try {
+                String[] path = exchange.getRequestURI().getPath().split("/");
+                byte[] content = files.get(path[path.length - 2]);
+
+                Thread.sleep(100);
+                send(exchange, content);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void send(HttpExchange exchange, byte[] content) throws IOException {
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int start = 0;
+        int end = content.length - 1;
+
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = bounds.length > 1 ? Math.min(end, Integer.parseInt(bounds[1])) : end;
+
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+        }
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, start, end - start + 1);
+        }
+    }
+
+    private static FileRef fileRef(int id, String name, long size) {
+        return new FileRef(id(id), null, null, 0, "", "", null, name, 0, 1540000000, true, true, false, false, size,
+                "application/octet-stream", "disk");
+    }
+
+    private static Id id(int n) {
+        return new Id(String.format("%032x", n));
+    }
+
+}
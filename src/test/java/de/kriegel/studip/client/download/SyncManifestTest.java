@@ -0,0 +1,49 @@
+package de.kriegel.studip.client.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.kriegel.studip.client.content.model.data.FileRef;
+import de.kriegel.studip.client.content.model.data.Id;
+
+public class SyncManifestTest {
+
+    private static final long LARGE_SIZE = 5L * 1024 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void keepsSizesAboveTwoGibibytes() throws Exception {
+        File downloadDirectory = temporaryFolder.getRoot();
+
+        SyncManifest syncManifest = SyncManifest.load(downloadDirectory);
+        syncManifest.put(new SyncManifest.Entry(id(10), id(11), id(99), LARGE_SIZE, 1540000000, "Course/lecture.mp4",
+                new byte[20]));
+        syncManifest.save();
+
+        SyncManifest.Entry entry = SyncManifest.load(downloadDirectory).get(id(10));
+
+        assertEquals(LARGE_SIZE, entry.getSize());
+        assertTrue(entry.isUpToDate(fileRef(LARGE_SIZE), "Course/lecture.mp4"));
+        // the same size truncated to an int must not be taken as up to date
+        assertFalse(entry.isUpToDate(fileRef((int) LARGE_SIZE), "Course/lecture.mp4"));
+    }
+
+    private static FileRef fileRef(long size) {
+        return new FileRef(id(10), id(11), null, 0, "", "", null, "lecture.mp4", 0, 1540000000, true, true, false,
+                false, size, "video/mp4", "disk");
+    }
+
+    private static Id id(int n) {
+        return new Id(String.format("%032x", n));
+    }
+
+}
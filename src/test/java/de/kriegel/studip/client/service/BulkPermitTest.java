@@ -0,0 +1,118 @@
+package de.kriegel.studip.client.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.kriegel.studip.client.config.RateLimit;
+import okhttp3.ResponseBody;
+
+public class BulkPermitTest {
+
+	// limit 4 with a bulk share of 0.5 allows two downloads at once
+	private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, 0.5);
+
+	@After
+	public void removePauseListener() {
+		HostRateLimiter.setPauseListener(null);
+	}
+
+	@Test(timeout = 10000)
+	public void throttledBodyDoesNotHoldItsPermitPastItsSlice() throws Exception {
+		HostRateLimiter rateLimiter = new HostRateLimiter("localhost", new RateLimit(0, 0, 64 * 1024, 8 * 1024));
+		byte[] content = new byte[32 * 1024];
+
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+		CompletableFuture<Void> waitingDownload = limiter.acquire(RequestPriority.BULK);
+		assertFalse(waitingDownload.isDone());
+
+		BulkPermit permit = new BulkPermit(limiter, 0, false, 0);
+		List<Boolean> heldDuringPauses = new ArrayList<>();
+
+		HostRateLimiter.setPauseListener(delayNanos -> {
+			heldDuringPauses.add(permit.isHeld());
+
+			if (heldDuringPauses.size() == 1) {
+				// the waiting download got the lent permit and finishes during the pause
+				assertTrue(waitingDownload.isDone());
+				limiter.release(RequestPriority.BULK);
+			}
+		});
+
+		try (ResponseBody body = rateLimiter.throttle(ResponseBody.create(null, content), permit)) {
+			assertEquals(content.length, body.bytes().length);
+		} finally {
+			permit.close();
+		}
+
+		assertTrue(heldDuringPauses.size() > 1);
+		assertFalse(heldDuringPauses.contains(true));
+		assertEquals(1, limiter.getInFlight(RequestPriority.BULK));
+	}
+
+	@Test
+	public void lentPermitIsTakenBackAheadOfWaitingDownloads() {
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+		CompletableFuture<Void> waitingDownload = limiter.acquire(RequestPriority.BULK);
+
+		// the second permit is lent to the waiting download and taken back right away
+		limiter.release(RequestPriority.BULK);
+		assertTrue(waitingDownload.isDone());
+
+		CompletableFuture<Void> nextDownload = limiter.acquire(RequestPriority.BULK);
+		CompletableFuture<Void> lentPermit = limiter.reacquire(RequestPriority.BULK);
+		limiter.release(RequestPriority.BULK);
+
+		assertTrue(lentPermit.isDone());
+		assertFalse(nextDownload.isDone());
+		assertEquals(2, limiter.getInFlight(RequestPriority.BULK));
+	}
+
+	@Test
+	public void lentPermitWhichIsNotGrantedInTimeFails() {
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+		BulkPermit permit = new BulkPermit(limiter, 0, false, 50);
+
+		permit.lend();
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+
+		try {
+			permit.takeBack();
+			fail();
+		} catch (InterruptedIOException e) {
+			// expected
+		}
+
+		permit.close();
+
+		assertEquals(0, limiter.getWaiting());
+		assertEquals(2, limiter.getInFlight(RequestPriority.BULK));
+	}
+
+	@Test
+	public void permitOfRejectedRequestIsNotLent() {
+		assertTrue(limiter.acquire(RequestPriority.BULK).isDone());
+		BulkPermit permit = new BulkPermit(limiter, 0, true, 0);
+
+		permit.lend();
+		assertTrue(permit.isHeld());
+		assertEquals(1, limiter.getInFlight(RequestPriority.BULK));
+
+		permit.close();
+		permit.close();
+		assertEquals(0, limiter.getInFlight(RequestPriority.BULK));
+	}
+
+}